@@ -55,12 +55,19 @@ CREATE TABLE `user_document` (
     `file_size` BIGINT(20) NOT NULL COMMENT '文件大小(字节)',
     `file_url` VARCHAR(500) NOT NULL COMMENT 'MinIO文件URL',
     `description` TEXT DEFAULT NULL COMMENT '文档描述',
+    `status` TINYINT(4) NOT NULL DEFAULT 2 COMMENT '处理状态：0-待处理，1-处理中，2-处理完成，3-处理失败',
+    `process_stage` VARCHAR(20) DEFAULT NULL COMMENT '当前（或失败时所在的）处理阶段：PARSE, GENERATE, INDEX',
+    `process_message` VARCHAR(500) DEFAULT NULL COMMENT '处理消息，记录处理过程或错误信息',
+    `qa_count` INT(11) DEFAULT 0 COMMENT '生成的问答数量',
+    `retry_count` INT(11) NOT NULL DEFAULT 0 COMMENT '重试次数',
+    `qa_result` MEDIUMTEXT DEFAULT NULL COMMENT '大模型生成的问答JSON',
     `is_deleted` TINYINT(1) NOT NULL DEFAULT 0 COMMENT '是否删除：0-未删除，1-已删除',
     `create_time` DATETIME NOT NULL COMMENT '创建时间',
     `update_time` DATETIME NOT NULL COMMENT '更新时间',
     PRIMARY KEY (`id`),
     KEY `idx_user_id` (`user_id`),
-    KEY `idx_product_id` (`product_id`)
+    KEY `idx_product_id` (`product_id`),
+    KEY `idx_status` (`status`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='用户文档表';
 
 -- 创建初始管理员用户
@@ -0,0 +1,168 @@
+package com.example.kefu.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 线程池配置类
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${aliyun.embedding.batch-threads:4}")
+    private int embeddingBatchThreads;
+
+    @Value("${chat.stream.threads:16}")
+    private int chatStreamThreads;
+
+    @Value("${chat.rag.threads:32}")
+    private int ragThreads;
+
+    @Value("${qa.index.threads:8}")
+    private int qaIndexThreads;
+
+    @Value("${qa.generation.threads:4}")
+    private int qaGenerationThreads;
+
+    @Value("${document.ingest.threads:4}")
+    private int documentIngestThreads;
+
+    @Value("${document.ingest.queue-capacity:100}")
+    private int documentIngestQueueCapacity;
+
+    @Value("${vector.normalization.threads:2}")
+    private int vectorNormalizationThreads;
+
+    /**
+     * 合并后的向量批量请求执行线程池
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor embeddingBatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(embeddingBatchThreads);
+        executor.setMaxPoolSize(embeddingBatchThreads);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("embedding-batch-");
+        // 队列满时由提交线程自己执行，避免丢弃请求
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+
+    /**
+     * 流式问答执行线程池，检索和生成都在该线程池中执行，不占用Tomcat请求线程
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor chatStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(chatStreamThreads);
+        executor.setMaxPoolSize(chatStreamThreads);
+        executor.setQueueCapacity(200);
+        executor.setThreadNamePrefix("chat-stream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * 问答流水线检索线程池（聊天历史、全文检索、向量检索等阶段并发执行）
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor ragExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(ragThreads);
+        executor.setMaxPoolSize(ragThreads);
+        executor.setQueueCapacity(500);
+        executor.setThreadNamePrefix("rag-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+
+    /**
+     * 文档异步处理线程池（解析、生成问答、生成向量、写入索引）
+     * 队列满时拒绝提交，文档保持待处理状态，由定时任务稍后重新提交
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor documentIngestExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(documentIngestThreads);
+        executor.setMaxPoolSize(documentIngestThreads);
+        executor.setQueueCapacity(documentIngestQueueCapacity);
+        executor.setThreadNamePrefix("document-ingest-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * 问答对向量化和写入索引线程池，实际并发由向量接口和租户的并发上限控制
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor qaIndexExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(qaIndexThreads);
+        executor.setMaxPoolSize(qaIndexThreads);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("qa-index-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * 问答分块生成线程池，线程数即同时调用大模型的最大块数
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor qaGenerationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(qaGenerationThreads);
+        executor.setMaxPoolSize(qaGenerationThreads);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("qa-generation-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * 向量归一化迁移线程池，同一索引同时只有一个迁移任务，线程数即可同时迁移的索引数
+     * 队列满时拒绝提交，由调用方撤销迁移登记
+     *
+     * @return ThreadPoolTaskExecutor
+     */
+    @Bean
+    public ThreadPoolTaskExecutor vectorNormalizationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(vectorNormalizationThreads);
+        executor.setMaxPoolSize(vectorNormalizationThreads);
+        executor.setQueueCapacity(10);
+        executor.setThreadNamePrefix("vector-normalization-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
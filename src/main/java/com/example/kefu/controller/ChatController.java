@@ -2,23 +2,23 @@ package com.example.kefu.controller;
 
 import com.example.kefu.annotation.ApiLog;
 import com.example.kefu.model.request.ChatRequest;
-import com.example.kefu.model.EmbeddingRequest;
-import com.example.kefu.model.EmbeddingResponse;
+import com.example.kefu.model.request.RagQuery;
 import com.example.kefu.model.request.VectorChatRequest;
 import com.example.kefu.model.response.ApiResponse;
 import com.example.kefu.model.response.ChatResponse;
-import com.example.kefu.service.AliEmbeddingService;
-import com.example.kefu.service.ElasticsearchService;
 import com.example.kefu.service.QwenService;
-import com.example.kefu.service.ChatHistoryManager;
+import com.example.kefu.service.RagPipeline;
+import com.example.kefu.service.SemanticAnswerCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.List;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 /**
@@ -29,40 +29,48 @@ import java.util.Map;
 @RequestMapping("/api/chat")
 public class ChatController {
 
+    /**
+     * 向量搜索回答的回答要求
+     */
+    private static final String VECTOR_ANSWER_INSTRUCTION =
+            "请根据以上信息与历史记录，用专业、简洁的语言回答我的问题（只要信息足够就尽量简洁回答）。如果以上信息不足以回答我的问题，请自行回答。";
+
+    /**
+     * 混合搜索回答的回答要求
+     */
+    private static final String HYBRID_ANSWER_INSTRUCTION =
+            "请根据以上信息，用专业、简洁的语言回答我的问题,如果信息充足尽量减少礼貌用于和客套直接回答信息就行。" +
+            "如果以上信息不足以回答我的问题或者以上信息与用户问题无关。就不要参考上方数据回答，而是自己回答";
+
+    /**
+     * 文本搜索及指定向量字段回答的回答要求
+     */
+    private static final String DEFAULT_ANSWER_INSTRUCTION =
+            "请根据以上信息，用专业、简洁的语言回答我的问题。如果以上信息不足以回答我的问题，请告诉我你需要更多信息。";
+
     @Autowired
     private QwenService qwenService;
-    
-    @Autowired
-    private AliEmbeddingService aliEmbeddingService;
-    
+
     @Autowired
-    private ElasticsearchService elasticsearchService;
+    private RagPipeline ragPipeline;
 
     @Autowired
-    private ChatHistoryManager chatHistoryManager;
+    private SemanticAnswerCache semanticAnswerCache;
+
+    // 流式响应超时时间（毫秒）
+    @Value("${chat.stream.timeout-ms:120000}")
+    private long streamTimeoutMillis;
 
     @PostMapping("/chat")
     public ApiResponse<ChatResponse> chat(@RequestBody String question) {
         // 由于这是简单的聊天接口，没有tableId，所以使用固定的tableId
-        String tableId = "default";
-        
-        // 获取聊天历史
-        String chatHistory = chatHistoryManager.getChatHistory(tableId);
-        
-        // 构建提示词
-        StringBuilder prompt = new StringBuilder();
-        if (!chatHistory.isEmpty()) {
-            prompt.append(chatHistory);
-        }
-        prompt.append(question);
-        
-        // 调用大模型获取回答
-        String answer = qwenService.chat(prompt.toString());
-        
-        // 保存聊天记录
-        chatHistoryManager.addChatRecord(tableId, question, answer);
-        
-        return ApiResponse.success(ChatResponse.of(answer));
+        RagQuery query = RagQuery.builder()
+                .mode(RagQuery.Mode.NONE)
+                .question(question)
+                .tableId("default")
+                .build();
+
+        return ApiResponse.success(ChatResponse.of(ragPipeline.answer(query)));
     }
 
     /**
@@ -73,88 +81,13 @@ public class ChatController {
      */
     @PostMapping("/answer")
     public ApiResponse<ChatResponse> answer(@RequestBody ChatRequest request) {
-        try {
-            // 1. 获取请求参数
-            Integer userId = request.getUserId();
-            String shopName = request.getShopName();
-            String productName = request.getProductName();
-            String question = request.getQuestion();
-            String tableId = request.getTableId();
-            
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
-
-            // 2. 将问题转换为向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(question);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
-            
-            // 获取向量
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 3. 执行向量搜索，指定返回字段（排除向量字段）
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchByVector(
-                "qa_vectors",      // 索引名
-                userId.longValue(), // 用户ID转为Long
-                shopName,          // 店铺名称
-                productName,       // 产品名称
-                vector,            // 查询向量
-                5,                 // 返回结果数量
-                1.8f,              // 相似度阈值
-                includeFields,     // 包含字段
-                null               // 排除字段（不需要，因为已经指定了包含字段）
-            );
-            
-            // 4. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 5. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            prompt.append("===").append(question).append("\n\n");
-
-            prompt.append("下面是用户的当前问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息与历史记录，用专业、简洁的语言回答我的问题（只要信息足够就尽量简洁回答）。如果以上信息不足以回答我的问题，请自行回答。");
-            
-            // 6. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 7. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
+        try {
+            String answer = ragPipeline.answer(vectorAnswerQuery(request));
             return ApiResponse.success(ChatResponse.of(answer));
         } catch (Exception e) {
             log.error("向量搜索回答问题时发生错误", e);
@@ -171,98 +104,20 @@ public class ChatController {
     @ApiLog("问答数量监控")
     @PostMapping("/hybrid-answer")
     public ApiResponse<ChatResponse> hybridAnswer(@RequestBody ChatRequest request) {
-        try {
-            // 1. 获取请求参数
-            Integer userId = request.getUserId();
-            String shopName = request.getShopName();
-            String productName = request.getProductName();
-            String question = request.getQuestion();
-            String tableId = request.getTableId();
-            
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
-
-            // 2. 将问题转换为向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(question);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
-            
-            // 获取向量
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 3. 执行混合搜索（结合文本搜索和向量搜索），指定返回字段
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchHybrid(
-                "qa_vectors",                          // 索引名
-                question,                              // 查询文本
-                Arrays.asList("question", "answer"),   // 搜索字段
-                vector,                                // 向量数组
-                0.3f,                                  // 文本搜索权重
-                0.7f,                                  // 向量搜索权重
-                userId.longValue(),                    // 用户ID
-                shopName,                              // 店铺名称
-                productName,                           // 产品名称
-                5,                                     // 返回结果数量
-                includeFields,                         // 包含字段
-                null                                   // 排除字段
-            );
-            
-            // 4. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 5. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            
-            prompt.append("我有一个问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息，用专业、简洁的语言回答我的问题,如果信息充足尽量减少礼貌用于和客套直接回答信息就行。" +
-                    "如果以上信息不足以回答我的问题或者以上信息与用户问题无关。就不要参考上方数据回答，而是自己回答");
-            
-            // 6. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 7. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
+        try {
+            String answer = ragPipeline.answer(hybridAnswerQuery(request));
             return ApiResponse.success(ChatResponse.of(answer));
         } catch (Exception e) {
-            log.error("混合搜索回答问题时发生错误", e);e.printStackTrace();
+            log.error("混合搜索回答问题时发生错误", e);
             return ApiResponse.error(500, "处理您的问题时出现了错误，请稍后再试");
         }
     }
-    
+
     /**
      * 文本搜索回答用户问题（仅使用全文检索）
      *
@@ -271,76 +126,18 @@ public class ChatController {
      */
     @PostMapping("/text-answer")
     public ApiResponse<ChatResponse> textAnswer(@RequestBody ChatRequest request) {
-        try {
-            // 1. 获取请求参数
-            Integer userId = request.getUserId();
-            String shopName = request.getShopName();
-            String productName = request.getProductName();
-            String question = request.getQuestion();
-            String tableId = request.getTableId();
-            
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 2. 执行文本搜索，指定返回字段
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchByText(
-                "qa_vectors",                          // 索引名
-                question,                              // 查询文本
-                Arrays.asList("question", "answer"),   // 搜索字段
-                userId.longValue(),                    // 用户ID
-                shopName,                              // 店铺名称
-                productName,                           // 产品名称
-                5,                                     // 返回结果数量
-                includeFields,                         // 包含字段
-                null                                   // 排除字段
-            );
-            
-            // 3. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 4. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            
-            prompt.append("我有一个问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息，用专业、简洁的语言回答我的问题。如果以上信息不足以回答我的问题，请告诉我你需要更多信息。");
-            
-            // 5. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 6. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
-            return ApiResponse.success(ChatResponse.of(answer));
+        try {
+            RagQuery query = baseQuery(request)
+                    .mode(RagQuery.Mode.TEXT)
+                    .questionText("我有一个问题：" + request.getQuestion() + "\n\n")
+                    .instruction(DEFAULT_ANSWER_INSTRUCTION)
+                    .build();
+            return ApiResponse.success(ChatResponse.of(ragPipeline.answer(query)));
         } catch (Exception e) {
             log.error("文本搜索回答问题时发生错误", e);
             return ApiResponse.error(500, "处理您的问题时出现了错误，请稍后再试");
@@ -372,99 +169,19 @@ public class ChatController {
      */
     @PostMapping("/vector-answer")
     public ApiResponse<ChatResponse> vectorAnswer(@RequestBody VectorChatRequest request) {
-        try {
-            // 1. 获取请求参数
-            Integer userId = request.getUserId();
-            String shopName = request.getShopName();
-            String productName = request.getProductName();
-            String question = request.getQuestion();
-            String vectorField = request.getVectorField();
-            String tableId = request.getTableId();
-            
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
-            
-            // 如果未指定向量字段，默认使用问题向量
-            if (vectorField == null || vectorField.trim().isEmpty()) {
-                vectorField = "question_vector";
-            }
-            
-            // 验证向量字段是否有效
-            if (!vectorField.equals("question_vector") && !vectorField.equals("answer_vector")) {
-                return ApiResponse.error(400, "向量字段必须是 'question_vector' 或 'answer_vector'");
-            }
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 2. 将问题转换为向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(question);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
-            
-            // 获取向量
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
+        // 验证向量字段是否有效
+        String vectorField = resolveVectorField(request);
+        if (vectorField == null) {
+            return ApiResponse.error(400, "向量字段必须是 'question_vector' 或 'answer_vector'");
+        }
 
-            // 3. 执行向量搜索，指定返回字段（排除向量字段）
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchByVector(
-                "qa_vectors",      // 索引名
-                userId.longValue(), // 用户ID转为Long
-                shopName,          // 店铺名称
-                productName,       // 产品名称
-                vector,            // 查询向量
-                5,                 // 返回结果数量
-                1.8f,              // 相似度阈值
-                includeFields,     // 包含字段
-                null,              // 排除字段（不需要，因为已经指定了包含字段）
-                vectorField        // 向量字段
-            );
-            
-            // 4. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 5. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            
-            prompt.append("我有一个问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息，用专业、简洁的语言回答我的问题。如果以上信息不足以回答我的问题，请告诉我你需要更多信息。");
-            
-            // 6. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 7. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
+        try {
+            String answer = ragPipeline.answer(vectorFieldAnswerQuery(request, vectorField));
             return ApiResponse.success(ChatResponse.of(answer));
         } catch (Exception e) {
             log.error("向量搜索回答问题时发生错误", e);
@@ -480,112 +197,34 @@ public class ChatController {
      */
     @PostMapping("/hybrid-vector-answer")
     public ApiResponse<ChatResponse> hybridVectorAnswer(@RequestBody VectorChatRequest request) {
-        try {
-            // 1. 获取请求参数
-            Integer userId = request.getUserId();
-            String shopName = request.getShopName();
-            String productName = request.getProductName();
-            String question = request.getQuestion();
-            String vectorField = request.getVectorField();
-            String tableId = request.getTableId();
-            
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
-            
-            // 如果未指定向量字段，默认使用问题向量
-            if (vectorField == null || vectorField.trim().isEmpty()) {
-                vectorField = "question_vector";
-            }
-            
-            // 验证向量字段是否有效
-            if (!vectorField.equals("question_vector") && !vectorField.equals("answer_vector")) {
-                return ApiResponse.error(400, "向量字段必须是 'question_vector' 或 'answer_vector'");
-            }
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 2. 将问题转换为向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(question);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
-            
-            // 获取向量
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
+        // 验证向量字段是否有效
+        String vectorField = resolveVectorField(request);
+        if (vectorField == null) {
+            return ApiResponse.error(400, "向量字段必须是 'question_vector' 或 'answer_vector'");
+        }
 
-            // 3. 执行混合搜索（结合文本搜索和向量搜索），指定返回字段
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchHybrid(
-                "qa_vectors",                          // 索引名
-                question,                              // 查询文本
-                Arrays.asList("question", "answer"),   // 搜索字段
-                vector,                                // 向量数组
-                0.3f,                                  // 文本搜索权重
-                0.7f,                                  // 向量搜索权重
-                userId.longValue(),                    // 用户ID
-                shopName,                              // 店铺名称
-                productName,                           // 产品名称
-                5,                                     // 返回结果数量
-                includeFields,                         // 包含字段
-                null,                                  // 排除字段
-                vectorField                            // 向量字段
-            );
-            
-            // 4. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 5. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            
-            prompt.append("我有一个问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息，用专业、简洁的语言回答我的问题。如果以上信息不足以回答我的问题，请告诉我你需要更多信息。");
-            
-            // 6. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 7. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
-            return ApiResponse.success(ChatResponse.of(answer));
+        try {
+            RagQuery query = baseQuery(request)
+                    .mode(RagQuery.Mode.HYBRID)
+                    .vectorField(vectorField)
+                    .questionText("我有一个问题：" + request.getQuestion() + "\n\n")
+                    .instruction(DEFAULT_ANSWER_INSTRUCTION)
+                    .build();
+            return ApiResponse.success(ChatResponse.of(ragPipeline.answer(query)));
         } catch (Exception e) {
-            log.error("混合搜索回答问题时发生错误", e);e.printStackTrace();
+            log.error("混合搜索回答问题时发生错误", e);
             return ApiResponse.error(500, "处理您的问题时出现了错误，请稍后再试");
         }
     }
 
     /**
      * 混合搜索回答用户问题（结合文本搜索和向量搜索）- GET方式
-     * 
+     *
      * 与hybridAnswer功能相同，但使用GET请求方式获取参数
      *
      * @param userId 用户ID
@@ -603,88 +242,199 @@ public class ChatController {
             @RequestParam(required = false) String productName,
             @RequestParam String question,
             @RequestParam(required = false) String tableId) {
-        try {
-            // 如果tableId为空，则使用userId作为tableId
-            if (tableId == null || tableId.trim().isEmpty()) {
-                tableId = userId.toString();
-            }
-
-            // 参数校验
-            if (userId == null || question == null || question.trim().isEmpty()) {
-                return ApiResponse.error(400, "请提供有效的用户ID和问题");
-            }
+        ChatRequest request = new ChatRequest();
+        request.setUserId(userId);
+        request.setShopName(shopName);
+        request.setProductName(productName);
+        request.setQuestion(question);
+        request.setTableId(tableId);
 
-            // 2. 将问题转换为向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(question);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
-            
-            // 获取向量
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
+        // 参数校验
+        if (userId == null || question == null || question.trim().isEmpty()) {
+            return ApiResponse.error(400, "请提供有效的用户ID和问题");
+        }
 
-            // 3. 执行混合搜索（结合文本搜索和向量搜索），指定返回字段
-            List<String> includeFields = Arrays.asList("question", "answer", "productName", "shopName", "userId");
-            Map<String, Object> searchResult = elasticsearchService.searchHybrid(
-                "qa_vectors",                          // 索引名
-                question,                              // 查询文本
-                Arrays.asList("question", "answer"),   // 搜索字段
-                vector,                                // 向量数组
-                0.3f,                                  // 文本搜索权重
-                0.7f,                                  // 向量搜索权重
-                userId.longValue(),                    // 用户ID
-                shopName,                              // 店铺名称
-                productName,                           // 产品名称
-                5,                                     // 返回结果数量
-                includeFields,                         // 包含字段
-                null                                   // 排除字段
-            );
-            
-            // 4. 提取相关文档
-            List<Map<String, Object>> relevantDocs = elasticsearchService.extractRelevantDocuments(searchResult, 1.8);
-            
-            // 5. 构建提示词
-            StringBuilder prompt = new StringBuilder();
-            
-            // 添加聊天历史
-            String chatHistory = chatHistoryManager.getChatHistory(tableId);
-            if (!chatHistory.isEmpty()) {
-                prompt.append(chatHistory);
-            }
-            
-            prompt.append("我有一个问题：").append(question).append("\n\n");
-            
-            if (relevantDocs.isEmpty()) {
-                // 如果没有找到相关文档，直接调用大模型
-                String answer = qwenService.chat(prompt.toString());
-                // 保存聊天记录
-                chatHistoryManager.addChatRecord(tableId, question, answer);
-                return ApiResponse.success(ChatResponse.of(answer));
-            }
-            
-            prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
-            
-            for (Map<String, Object> doc : relevantDocs) {
-                prompt.append("问题：").append(doc.get("question")).append("\n");
-                prompt.append("答案：").append(doc.get("answer")).append("\n\n");
-            }
-            
-            prompt.append("请根据以上信息，用专业、简洁的语言回答我的问题,如果信息充足尽量减少礼貌用于和客套直接回答信息就行。" +
-                    "如果以上信息不足以回答我的问题或者以上信息与用户问题无关。就不要参考上方数据回答，而是自己回答");
-            
-            // 6. 调用大模型获取回答
-            String answer = qwenService.chat(prompt.toString());
-            
-            // 7. 保存聊天记录
-            chatHistoryManager.addChatRecord(tableId, question, answer);
-            
+        try {
+            String answer = ragPipeline.answer(hybridAnswerQuery(request));
             return ApiResponse.success(ChatResponse.of(answer));
         } catch (Exception e) {
-            log.error("GET方式混合搜索回答问题时发生错误", e);e.printStackTrace();
+            log.error("GET方式混合搜索回答问题时发生错误", e);
             return ApiResponse.error(500, "处理您的问题时出现了错误，请稍后再试");
         }
     }
-} 
+
+    /**
+     * 流式回答用户问题（向量搜索，SSE）
+     * 事件：token（增量内容）、done（完整回答）、error（错误信息）
+     *
+     * @param request 问题请求，包含用户ID、店铺名称、产品名称和问题
+     * @return SSE连接
+     */
+    @PostMapping(value = "/answer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter answerStream(@RequestBody ChatRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            sendError(emitter, 400, "请提供有效的用户ID和问题");
+            return emitter;
+        }
+
+        streamAnswer(emitter, vectorAnswerQuery(request), "流式向量搜索回答问题时发生错误");
+        return emitter;
+    }
+
+    /**
+     * 流式回答用户问题（混合搜索，SSE）
+     *
+     * @param request 问题请求，包含用户ID、店铺名称、产品名称和问题
+     * @return SSE连接
+     */
+    @ApiLog(value = "问答数量监控", recordResponseBody = false)
+    @PostMapping(value = "/hybrid-answer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter hybridAnswerStream(@RequestBody ChatRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            sendError(emitter, 400, "请提供有效的用户ID和问题");
+            return emitter;
+        }
+
+        streamAnswer(emitter, hybridAnswerQuery(request), "流式混合搜索回答问题时发生错误");
+        return emitter;
+    }
+
+    /**
+     * 流式回答用户问题（指定向量字段搜索，SSE）
+     *
+     * @param request 问题请求，包含用户ID、店铺名称、产品名称、问题和向量字段
+     * @return SSE连接
+     */
+    @PostMapping(value = "/vector-answer/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter vectorAnswerStream(@RequestBody VectorChatRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+
+        // 参数校验
+        if (request.getUserId() == null || request.getQuestion() == null || request.getQuestion().trim().isEmpty()) {
+            sendError(emitter, 400, "请提供有效的用户ID和问题");
+            return emitter;
+        }
+
+        // 验证向量字段是否有效
+        String vectorField = resolveVectorField(request);
+        if (vectorField == null) {
+            sendError(emitter, 400, "向量字段必须是 'question_vector' 或 'answer_vector'");
+            return emitter;
+        }
+
+        streamAnswer(emitter, vectorFieldAnswerQuery(request, vectorField), "流式向量搜索回答问题时发生错误");
+        return emitter;
+    }
+
+    /**
+     * 获取语义回答缓存统计信息（精确命中、语义命中、未命中、失效次数等）
+     *
+     * @return 缓存统计
+     */
+    @GetMapping("/semantic-cache/stats")
+    public ApiResponse<Map<String, Object>> getSemanticCacheStats() {
+        return ApiResponse.success(semanticAnswerCache.getStats());
+    }
+
+    /**
+     * 公共请求参数，如果tableId为空，则使用userId作为tableId
+     */
+    private RagQuery.RagQueryBuilder baseQuery(ChatRequest request) {
+        String tableId = request.getTableId();
+        if (tableId == null || tableId.trim().isEmpty()) {
+            tableId = request.getUserId().toString();
+        }
+        return RagQuery.builder()
+                .userId(request.getUserId().longValue())
+                .shopName(request.getShopName())
+                .productName(request.getProductName())
+                .question(request.getQuestion())
+                .tableId(tableId);
+    }
+
+    private RagQuery vectorAnswerQuery(ChatRequest request) {
+        String question = request.getQuestion();
+        return baseQuery(request)
+                .mode(RagQuery.Mode.VECTOR)
+                .questionText("===" + question + "\n\n" + "下面是用户的当前问题：" + question + "\n\n")
+                .instruction(VECTOR_ANSWER_INSTRUCTION)
+                .build();
+    }
+
+    private RagQuery hybridAnswerQuery(ChatRequest request) {
+        return baseQuery(request)
+                .mode(RagQuery.Mode.HYBRID)
+                .questionText("我有一个问题：" + request.getQuestion() + "\n\n")
+                .instruction(HYBRID_ANSWER_INSTRUCTION)
+                .build();
+    }
+
+    private RagQuery vectorFieldAnswerQuery(VectorChatRequest request, String vectorField) {
+        return baseQuery(request)
+                .mode(RagQuery.Mode.VECTOR)
+                .vectorField(vectorField)
+                .questionText("我有一个问题：" + request.getQuestion() + "\n\n")
+                .instruction(DEFAULT_ANSWER_INSTRUCTION)
+                .build();
+    }
+
+    /**
+     * 如果未指定向量字段，默认使用问题向量
+     *
+     * @return 向量字段，无效时返回null
+     */
+    private String resolveVectorField(VectorChatRequest request) {
+        String vectorField = request.getVectorField();
+        if (vectorField == null || vectorField.trim().isEmpty()) {
+            return "question_vector";
+        }
+        if (!vectorField.equals("question_vector") && !vectorField.equals("answer_vector")) {
+            return null;
+        }
+        return vectorField;
+    }
+
+    /**
+     * 检索并流式生成回答，逐段推送给客户端
+     */
+    private void streamAnswer(SseEmitter emitter, RagQuery query, String errorMessage) {
+        ragPipeline.answerStream(query, delta -> {
+            try {
+                emitter.send(SseEmitter.event().name("token").data(ChatResponse.of(delta)));
+            } catch (IOException e) {
+                // 客户端已断开，终止生成
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((answer, e) -> {
+            if (e != null) {
+                log.error(errorMessage, e);
+                sendError(emitter, 500, "处理您的问题时出现了错误，请稍后再试");
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event().name("done").data(ChatResponse.of(answer)));
+                emitter.complete();
+            } catch (Exception ex) {
+                emitter.completeWithError(ex);
+            }
+        });
+    }
+
+    /**
+     * 推送错误事件并结束SSE连接
+     */
+    private void sendError(SseEmitter emitter, int code, String message) {
+        try {
+            emitter.send(SseEmitter.event().name("error").data(ApiResponse.error(code, message)));
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+}
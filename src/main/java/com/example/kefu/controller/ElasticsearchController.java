@@ -1,7 +1,5 @@
 package com.example.kefu.controller;
 
-import com.example.kefu.model.EmbeddingRequest;
-import com.example.kefu.model.EmbeddingResponse;
 import com.example.kefu.model.request.AdvancedSearchRequest;
 import com.example.kefu.model.request.SearchRequest;
 import com.example.kefu.model.response.ApiResponse;
@@ -11,8 +9,12 @@ import com.example.kefu.model.response.SearchResult;
 import com.example.kefu.service.ElasticsearchService;
 import com.example.kefu.service.ElasticsearchAdminService;
 import com.example.kefu.service.AliEmbeddingService;
+import com.example.kefu.service.QueryResultCache;
+import com.example.kefu.service.VectorNormalizationService;
+import com.example.kefu.util.VectorMath;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
@@ -38,6 +40,12 @@ public class ElasticsearchController {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private VectorNormalizationService vectorNormalizationService;
+
     /**
      * 获取所有索引
      *
@@ -128,6 +136,46 @@ public class ElasticsearchController {
         }
     }
 
+    /**
+     * 获取查询结果缓存统计信息（命中、未命中、淘汰、失效次数等）
+     */
+    @GetMapping("/query-cache/stats")
+    public ApiResponse<Map<String, Object>> getQueryCacheStats() {
+        return ApiResponse.success(queryResultCache.getStats());
+    }
+
+    /**
+     * 把索引中已有文档的向量重新归一化（后台执行），全部完成后在索引映射中写入已归一化标记，查询切换为点积打分
+     *
+     * @param indexName 索引名称
+     * @param vectorFields 向量字段，默认为 question_vector、answer_vector
+     * @return 是否已开始执行
+     */
+    @PostMapping("/indices/{indexName}/normalize-vectors")
+    public ApiResponse<Map<String, Object>> normalizeVectors(
+            @PathVariable String indexName,
+            @RequestParam(defaultValue = "question_vector,answer_vector") List<String> vectorFields) {
+        try {
+            if (!vectorNormalizationService.startMigration(indexName, vectorFields)) {
+                return ApiResponse.error(2003, "该索引的向量归一化正在执行");
+            }
+        } catch (TaskRejectedException e) {
+            return ApiResponse.error(2003, "向量归一化任务过多，请稍后重试");
+        }
+        return ApiResponse.success(vectorNormalizationService.getStatus(indexName));
+    }
+
+    /**
+     * 获取索引的向量归一化状态和迁移进度
+     *
+     * @param indexName 索引名称
+     * @return 是否已归一化、最近一次迁移的扫描/更新/跳过/失败数量
+     */
+    @GetMapping("/indices/{indexName}/normalize-vectors")
+    public ApiResponse<Map<String, Object>> getVectorNormalizationStatus(@PathVariable String indexName) {
+        return ApiResponse.success(vectorNormalizationService.getStatus(indexName));
+    }
+
     /**
      * 创建自定义索引
      * 
@@ -186,19 +234,12 @@ public class ElasticsearchController {
             String content = (String) request.get("content");
             
             // 2. 使用现有服务生成向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(content);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
+            float[] vector = aliEmbeddingService.embed(content);
             
             // 3. 直接使用Map构建文档
             Map<String, Object> document = new HashMap<>();
             document.put("content", content);
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
-            document.put("vector", vector);
+            document.put("vector", VectorMath.normalize(vector));
             document.put("createTime", new Date());
             
             // 添加其他可能的字段
@@ -218,7 +259,7 @@ public class ElasticsearchController {
             result.put("success", true);
             result.put("id", id);
             result.put("indexName", indexName);
-            result.put("vectorDimensions", embeddingResponse.getData().get(0).getEmbedding().size());
+            result.put("vectorDimensions", vector.length);
             return ApiResponse.success(result);
         } catch (Exception e) {
             return ApiResponse.error(3001, "生成向量并存储文档失败: " + e.getMessage());
@@ -242,17 +283,10 @@ public class ElasticsearchController {
             String queryText = (String) request.get("query");
             
             // 2. 生成查询文本的向量
-            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-            embeddingRequest.setInput(queryText);
-            EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
+            float[] vector = aliEmbeddingService.embed(queryText);
             
             // 3. 使用向量在指定索引中进行相似度搜索
             int size = Integer.parseInt(request.getOrDefault("size", "5").toString());
-            List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-            float[] vector = new float[embeddingList.size()];
-            for (int i = 0; i < embeddingList.size(); i++) {
-                vector[i] = embeddingList.get(i);
-            }
             
             List<Map<String, Object>> results = elasticsearchService.searchSimilarDocumentsInIndex(
                     indexName, 
@@ -2,13 +2,19 @@ package com.example.kefu.controller;
 
 import com.example.kefu.model.EmbeddingRequest;
 import com.example.kefu.model.EmbeddingResponse;
+import com.example.kefu.model.response.ApiResponse;
 import com.example.kefu.service.AliEmbeddingService;
+import com.example.kefu.service.EmbeddingCache;
+import com.example.kefu.service.LocalVectorIndexService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 /**
  * 向量嵌入控制器
  */
@@ -18,9 +24,15 @@ public class EmbeddingController {
 
     private final AliEmbeddingService aliEmbeddingService;
 
+    private final EmbeddingCache embeddingCache;
+    private final LocalVectorIndexService localVectorIndexService;
+
     @Autowired
-    public EmbeddingController(AliEmbeddingService aliEmbeddingService) {
+    public EmbeddingController(AliEmbeddingService aliEmbeddingService, EmbeddingCache embeddingCache,
+                               LocalVectorIndexService localVectorIndexService) {
         this.aliEmbeddingService = aliEmbeddingService;
+        this.embeddingCache = embeddingCache;
+        this.localVectorIndexService = localVectorIndexService;
     }
 
     /**
@@ -33,4 +45,24 @@ public class EmbeddingController {
     public EmbeddingResponse getEmbedding(@RequestBody EmbeddingRequest request) {
         return aliEmbeddingService.getEmbedding(request);
     }
-} 
\ No newline at end of file
+
+    /**
+     * 获取向量缓存统计信息（命中、未命中、淘汰次数等）
+     *
+     * @return 缓存统计
+     */
+    @GetMapping("/cache/stats")
+    public ApiResponse<Map<String, Object>> getCacheStats() {
+        return ApiResponse.success(embeddingCache.getStats());
+    }
+
+    /**
+     * 获取本地向量索引统计信息
+     *
+     * @return 统计信息
+     */
+    @GetMapping("/local-index/stats")
+    public ApiResponse<Map<String, Object>> getLocalIndexStats() {
+        return ApiResponse.success(localVectorIndexService.getStats());
+    }
+}
@@ -2,6 +2,7 @@ package com.example.kefu.controller;
 
 import com.example.kefu.entity.Product;
 import com.example.kefu.model.response.ApiResponse;
+import com.example.kefu.model.response.SearchHits;
 import com.example.kefu.service.ProductService;
 import com.example.kefu.service.ElasticsearchService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -173,7 +174,7 @@ public class ProductController {
     public ApiResponse<List<Map<String, String>>> getProductQA(@PathVariable Long productId) {
         try {
             // 直接通过产品ID查询ES中的问答对
-            Map<String, Object> searchResult = elasticsearchService.searchByProductId(
+            SearchHits searchHits = elasticsearchService.searchByProductId(
                 "qa_vectors",                          // 索引名
                 productId,                             // 产品ID
                 100,                                   // 返回结果数量
@@ -182,21 +183,11 @@ public class ProductController {
             
             // 提取搜索结果
             List<Map<String, String>> qaList = new ArrayList<>();
-            
-            if (searchResult.containsKey("body")) {
-                Map<String, Object> body = (Map<String, Object>) searchResult.get("body");
-                if (body.containsKey("hits")) {
-                    Map<String, Object> hits = (Map<String, Object>) body.get("hits");
-                    List<Map<String, Object>> hitsList = (List<Map<String, Object>>) hits.get("hits");
-                    
-                    for (Map<String, Object> hit : hitsList) {
-                        Map<String, Object> source = (Map<String, Object>) hit.get("_source");
-                        Map<String, String> qa = new HashMap<>();
-                        qa.put("question", (String) source.get("question"));
-                        qa.put("answer", (String) source.get("answer"));
-                        qaList.add(qa);
-                    }
-                }
+            for (SearchHits.Hit hit : searchHits.getHits()) {
+                Map<String, String> qa = new HashMap<>();
+                qa.put("question", hit.getString("question"));
+                qa.put("answer", hit.getString("answer"));
+                qaList.add(qa);
             }
             
             return ApiResponse.success(qaList);
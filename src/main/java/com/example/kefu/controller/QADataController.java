@@ -1,17 +1,14 @@
 package com.example.kefu.controller;
 
-import com.example.kefu.model.EmbeddingRequest;
-import com.example.kefu.model.EmbeddingResponse;
 import com.example.kefu.model.request.QADataRequest;
 import com.example.kefu.model.response.ApiResponse;
-import com.example.kefu.service.AliEmbeddingService;
-import com.example.kefu.service.ElasticsearchService;
+import com.example.kefu.model.response.BulkItemResult;
+import com.example.kefu.service.QaIndexingService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -27,10 +24,7 @@ import java.util.Map;
 public class QADataController {
 
     @Autowired
-    private ElasticsearchService elasticsearchService;
-
-    @Autowired
-    private AliEmbeddingService aliEmbeddingService;
+    private QaIndexingService qaIndexingService;
 
     /**
      * 上传QA数据
@@ -58,9 +52,10 @@ public class QADataController {
                 return ApiResponse.error(400, "QA列表不能为空");
             }
 
-            // 处理每个QA对
+            // 校验QA对，收集有效的问答
             int successCount = 0;
             List<String> errorMessages = new ArrayList<>();
+            List<Map<String, String>> validQaList = new ArrayList<>();
 
             for (Map<String, String> qa : qaList) {
                 String question = qa.get("question");
@@ -76,54 +71,30 @@ public class QADataController {
                     errorMessages.add("答案不能为空");
                     continue;
                 }
-                
-                try {
-                    // 构建ES文档
-                    Map<String, Object> esDocument = new HashMap<>();
-                    esDocument.put("userId", userId);
-                    esDocument.put("shopId", shopId);
-                    esDocument.put("shopName", shopName);
-                    esDocument.put("productId", productId);
-                    esDocument.put("productName", productName);
-                    esDocument.put("question", question);
-                    esDocument.put("answer", answer);
-                    
-                    // 为问题生成向量
-                    EmbeddingRequest questionEmbeddingRequest = new EmbeddingRequest();
-                    questionEmbeddingRequest.setInput(question);
-                    EmbeddingResponse questionEmbeddingResponse = aliEmbeddingService.getEmbedding(questionEmbeddingRequest);
-                    
-                    // 转换问题向量格式
-                    List<Float> questionEmbeddingList = questionEmbeddingResponse.getData().get(0).getEmbedding();
-                    float[] questionVector = new float[questionEmbeddingList.size()];
-                    for (int i = 0; i < questionEmbeddingList.size(); i++) {
-                        questionVector[i] = questionEmbeddingList.get(i);
-                    }
-                    esDocument.put("question_vector", questionVector);
-                    
-                    // 为答案生成向量
-                    EmbeddingRequest answerEmbeddingRequest = new EmbeddingRequest();
-                    answerEmbeddingRequest.setInput(answer);
-                    EmbeddingResponse answerEmbeddingResponse = aliEmbeddingService.getEmbedding(answerEmbeddingRequest);
-                    
-                    // 转换答案向量格式
-                    List<Float> answerEmbeddingList = answerEmbeddingResponse.getData().get(0).getEmbedding();
-                    float[] answerVector = new float[answerEmbeddingList.size()];
-                    for (int i = 0; i < answerEmbeddingList.size(); i++) {
-                        answerVector[i] = answerEmbeddingList.get(i);
-                    }
-                    esDocument.put("answer_vector", answerVector);
 
-                    // 添加时间戳
-                    esDocument.put("createTime", LocalDateTime.now());
-                    esDocument.put("updateTime", LocalDateTime.now());
+                validQaList.add(qa);
+            }
 
-                    // 存储到ES索引
-                    elasticsearchService.saveDocumentToIndex("qa_vectors", esDocument);
-                    successCount++;
-                } catch (Exception e) {
-                    log.error("处理QA对失败: question={}, answer={}", question, answer, e);
-                    errorMessages.add("处理QA对失败: " + e.getMessage());
+            // 分组并行生成向量并写入索引
+            if (!validQaList.isEmpty()) {
+                Map<String, Object> baseFields = new HashMap<>();
+                baseFields.put("userId", userId);
+                baseFields.put("shopId", shopId);
+                baseFields.put("shopName", shopName);
+                baseFields.put("productId", productId);
+                baseFields.put("productName", productName);
+
+                List<BulkItemResult> results = qaIndexingService.indexQaPairs(userId, baseFields, validQaList, null);
+                for (int i = 0; i < results.size(); i++) {
+                    BulkItemResult result = results.get(i);
+                    if (result.isSuccess()) {
+                        successCount++;
+                    } else {
+                        Map<String, String> qa = validQaList.get(i);
+                        log.error("处理QA对失败: question={}, answer={}, 原因: {}",
+                                qa.get("question"), qa.get("answer"), result.getFailureMessage());
+                        errorMessages.add("处理QA对失败: " + result.getFailureMessage());
+                    }
                 }
             }
 
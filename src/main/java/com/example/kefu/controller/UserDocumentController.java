@@ -33,7 +33,7 @@ public class UserDocumentController {
      * @param shopName 店铺名称
      * @param documentName 文档名称
      * @param description 文档描述
-     * @return 文档ID
+     * @return 文档ID（同时也是处理任务ID，通过 /{id}/status 查询处理进度）
      */
     @PostMapping("/upload")
     public ApiResponse<Long> uploadDocument(
@@ -59,6 +59,30 @@ public class UserDocumentController {
         return ApiResponse.success(documentId);
     }
 
+    /**
+     * 查询文档处理状态
+     *
+     * @param id 文档ID
+     * @return 文档响应对象，包含status / processStage / processMessage / qaCount
+     */
+    @GetMapping("/{id}/status")
+    public ApiResponse<UserDocumentResponse> getDocumentStatus(@PathVariable Long id) {
+        UserDocumentResponse response = userDocumentService.getDocumentById(id);
+        return ApiResponse.success(response);
+    }
+
+    /**
+     * 重试处理失败的文档
+     *
+     * @param id 文档ID
+     * @return 是否已重新提交
+     */
+    @PostMapping("/{id}/retry")
+    public ApiResponse<Boolean> retryDocument(@PathVariable Long id) {
+        userDocumentService.retryDocument(id);
+        return ApiResponse.success(true);
+    }
+
     /**
      * 更新文档信息
      *
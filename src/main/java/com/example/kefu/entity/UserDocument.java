@@ -1,6 +1,7 @@
 package com.example.kefu.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableLogic;
 import com.baomidou.mybatisplus.annotation.TableName;
@@ -71,6 +72,37 @@ public class UserDocument {
      */
     private String description;
     
+    /**
+     * 处理状态：0-待处理，1-处理中，2-处理完成，3-处理失败
+     */
+    private Integer status;
+    
+    /**
+     * 当前（或失败时所在的）处理阶段：PARSE, GENERATE, INDEX
+     */
+    private String processStage;
+    
+    /**
+     * 处理消息，记录处理过程或错误信息
+     */
+    private String processMessage;
+    
+    /**
+     * 生成的问答数量
+     */
+    private Integer qaCount;
+    
+    /**
+     * 重试次数
+     */
+    private Integer retryCount;
+    
+    /**
+     * 大模型生成的问答JSON，重试时跳过生成阶段（列表查询不加载）
+     */
+    @TableField(select = false)
+    private String qaResult;
+    
     /**
      * 是否删除：0-未删除，1-已删除
      */
@@ -1,5 +1,7 @@
 package com.example.kefu.model;
 
+import com.example.kefu.util.EmbeddingVectorDeserializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -21,7 +23,11 @@ public class EmbeddingResponse {
     @NoArgsConstructor
     @AllArgsConstructor
     public static class EmbeddingData {
-        private List<Float> embedding;
+        /**
+         * 向量，直接反序列化为float数组，避免装箱
+         */
+        @JsonDeserialize(using = EmbeddingVectorDeserializer.class)
+        private float[] embedding;
         private Integer index;
         private String object;
     }
@@ -0,0 +1,88 @@
+package com.example.kefu.model.request;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 检索增强问答请求类（RagPipeline的输入）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RagQuery {
+
+    /**
+     * 检索方式
+     */
+    public enum Mode {
+        /**
+         * 不检索，只带聊天历史
+         */
+        NONE,
+        /**
+         * 向量检索
+         */
+        VECTOR,
+        /**
+         * 全文检索
+         */
+        TEXT,
+        /**
+         * 混合检索（全文 + 向量）
+         */
+        HYBRID
+    }
+
+    @Builder.Default
+    private Mode mode = Mode.HYBRID;
+
+    private Long userId;
+
+    private String shopName;
+
+    private String productName;
+
+    /**
+     * 用户问题
+     */
+    private String question;
+
+    /**
+     * 聊天窗口ID
+     */
+    private String tableId;
+
+    /**
+     * 向量字段名称
+     */
+    @Builder.Default
+    private String vectorField = "question_vector";
+
+    @Builder.Default
+    private int topK = 5;
+
+    /**
+     * 相关文档分数阈值
+     */
+    @Builder.Default
+    private double threshold = 1.8;
+
+    @Builder.Default
+    private float textWeight = 0.3f;
+
+    @Builder.Default
+    private float vectorWeight = 0.7f;
+
+    /**
+     * 提示词中的问题部分
+     */
+    private String questionText;
+
+    /**
+     * 提示词末尾的回答要求（仅在检索到相关问答时追加）
+     */
+    private String instruction;
+}
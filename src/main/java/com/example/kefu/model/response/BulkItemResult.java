@@ -0,0 +1,27 @@
+package com.example.kefu.model.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量写入单条文档的结果
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkItemResult {
+    /**
+     * 文档ID，写入失败时为空
+     */
+    private String id;
+
+    /**
+     * 失败原因，写入成功时为空
+     */
+    private String failureMessage;
+
+    public boolean isSuccess() {
+        return failureMessage == null;
+    }
+}
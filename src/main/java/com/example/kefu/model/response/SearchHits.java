@@ -0,0 +1,81 @@
+package com.example.kefu.model.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询命中结果（_search 响应中的 hits 部分）
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchHits {
+    /**
+     * 命中总数（ES统计值，不受分数阈值影响）
+     */
+    private long total;
+
+    /**
+     * 最高分数，没有命中时为空
+     */
+    private Double maxScore;
+
+    /**
+     * 分数高于阈值的命中记录，顺序与ES返回一致
+     */
+    private List<Hit> hits = new ArrayList<>();
+
+    /**
+     * 自适应截断：命中按分数降序排列，相邻两条的分数下降超过前一条分数的 maxDropRatio 时，
+     * 只保留下降之前的命中
+     *
+     * @param maxDropRatio 允许的相邻分数最大相对下降，不大于0时不截断
+     * @return 截断后的命中记录（新列表，不修改本对象）
+     */
+    public List<Hit> truncateAtScoreGap(double maxDropRatio) {
+        if (maxDropRatio <= 0 || hits.size() < 2) {
+            return hits;
+        }
+        for (int i = 1; i < hits.size(); i++) {
+            double previous = hits.get(i - 1).getScore();
+            double current = hits.get(i).getScore();
+            if (previous > 0 && (previous - current) / previous > maxDropRatio) {
+                return new ArrayList<>(hits.subList(0, i));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 命中记录
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Hit {
+        /**
+         * 文档ID
+         */
+        private String id;
+
+        /**
+         * 分数，按字段排序时为NaN
+         */
+        private double score;
+
+        /**
+         * 选取的源数据字段
+         */
+        private Map<String, Object> source;
+
+        public String getString(String field) {
+            Object value = source.get(field);
+            return value != null ? value.toString() : null;
+        }
+    }
+}
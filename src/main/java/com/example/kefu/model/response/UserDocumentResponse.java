@@ -65,6 +65,31 @@ public class UserDocumentResponse {
      */
     private String description;
     
+    /**
+     * 处理状态：0-待处理，1-处理中，2-处理完成，3-处理失败
+     */
+    private Integer status;
+    
+    /**
+     * 当前（或失败时所在的）处理阶段：PARSE, GENERATE, INDEX
+     */
+    private String processStage;
+    
+    /**
+     * 处理消息，记录处理过程或错误信息
+     */
+    private String processMessage;
+    
+    /**
+     * 生成的问答数量
+     */
+    private Integer qaCount;
+    
+    /**
+     * 重试次数
+     */
+    private Integer retryCount;
+    
     /**
      * 创建时间
      */
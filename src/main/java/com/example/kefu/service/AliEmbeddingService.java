@@ -11,7 +11,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,8 +29,26 @@ public class AliEmbeddingService {
     private final RestTemplate restTemplate;
     private final String baseUrl = "https://dashscope.aliyuncs.com/compatible-mode/v1/embeddings";
 
-    public AliEmbeddingService(@Value("${aliyun.dashscope.api-key:sk-f80333dbad6a4a78a79517fd0749cae1}") String apiKey) {
+    /**
+     * 单次请求允许的最大输入条数（text-embedding-v3 为10条）
+     */
+    private final int maxBatchSize;
+
+    /**
+     * 批量接口使用的向量编码格式：float 或 base64（base64响应体更小）
+     */
+    private final String encodingFormat;
+
+    private final EmbeddingCache embeddingCache;
+
+    public AliEmbeddingService(@Value("${aliyun.dashscope.api-key:sk-f80333dbad6a4a78a79517fd0749cae1}") String apiKey,
+                               @Value("${aliyun.embedding.batch-size:10}") int maxBatchSize,
+                               @Value("${aliyun.embedding.encoding-format:float}") String encodingFormat,
+                               EmbeddingCache embeddingCache) {
         this.apiKey = apiKey;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.encodingFormat = encodingFormat;
+        this.embeddingCache = embeddingCache;
         this.objectMapper = new ObjectMapper();
         this.restTemplate = new RestTemplate();
     }
@@ -38,26 +60,130 @@ public class AliEmbeddingService {
      * @return 嵌入响应
      */
     public EmbeddingResponse getEmbedding(EmbeddingRequest request) {
+        return requestEmbeddings(request.getInput(), request.getModel(), request.getDimensions(), request.getEncodingFormat());
+    }
+
+    /**
+     * 获取单条文本的向量
+     *
+     * @param text 文本
+     * @return 向量
+     */
+    public float[] embed(String text) {
+        float[] cached = getCachedEmbedding(text);
+        if (cached != null) {
+            return cached;
+        }
+        return getEmbeddings(Collections.singletonList(text)).get(0);
+    }
+
+    /**
+     * 批量获取文本向量嵌入
+     *
+     * 先查询向量缓存，未命中的文本按服务端单次输入条数上限自动分批，
+     * 每批只发起一次HTTP请求，返回结果与输入文本顺序一一对应。
+     *
+     * @param texts 文本列表
+     * @return 向量列表，顺序与输入一致
+     */
+    public List<float[]> getEmbeddings(List<String> texts) {
+        if (texts == null || texts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        EmbeddingRequest defaults = new EmbeddingRequest();
+        float[][] vectors = new float[texts.size()][];
+        List<Integer> missPositions = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            vectors[i] = embeddingCache.get(defaults.getModel(), defaults.getDimensions(), texts.get(i));
+            if (vectors[i] == null) {
+                missPositions.add(i);
+            }
+        }
+
+        for (int start = 0; start < missPositions.size(); start += maxBatchSize) {
+            List<Integer> positions = missPositions.subList(start, Math.min(start + maxBatchSize, missPositions.size()));
+            List<String> batch = new ArrayList<>(positions.size());
+            for (Integer position : positions) {
+                batch.add(texts.get(position));
+            }
+            EmbeddingResponse response = requestEmbeddings(batch, defaults.getModel(),
+                    defaults.getDimensions(), encodingFormat);
+
+            if (response == null || response.getData() == null || response.getData().size() != batch.size()) {
+                throw new RuntimeException("获取向量嵌入失败，返回数量与输入数量不一致");
+            }
+
+            // 服务端按index标识输入位置，不保证返回顺序；缺少index时按返回顺序对应
+            float[][] batchVectors = new float[batch.size()][];
+            List<EmbeddingResponse.EmbeddingData> dataList = response.getData();
+            for (int i = 0; i < dataList.size(); i++) {
+                EmbeddingResponse.EmbeddingData data = dataList.get(i);
+                int index = data.getIndex() != null ? data.getIndex() : i;
+                if (index < 0 || index >= batchVectors.length) {
+                    throw new RuntimeException("获取向量嵌入失败，返回的index越界: " + index);
+                }
+                batchVectors[index] = data.getEmbedding();
+            }
+            // 全部位置都拿到向量后再写入结果和缓存，避免把向量对应到错误的文本上
+            for (int i = 0; i < batchVectors.length; i++) {
+                if (batchVectors[i] == null) {
+                    throw new RuntimeException("获取向量嵌入失败，第" + i + "条输入没有返回向量");
+                }
+            }
+            for (int i = 0; i < batchVectors.length; i++) {
+                int position = positions.get(i);
+                vectors[position] = batchVectors[i];
+                embeddingCache.put(defaults.getModel(), defaults.getDimensions(), texts.get(position), vectors[position]);
+            }
+        }
+        return Arrays.asList(vectors);
+    }
+
+    /**
+     * 仅从缓存中获取单条文本的向量
+     *
+     * @param text 文本
+     * @return 向量，未命中返回null
+     */
+    public float[] getCachedEmbedding(String text) {
+        EmbeddingRequest defaults = new EmbeddingRequest();
+        return embeddingCache.get(defaults.getModel(), defaults.getDimensions(), text);
+    }
+
+    /**
+     * 单次请求允许的最大输入条数
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 调用向量接口
+     *
+     * @param input 单条文本或文本列表
+     */
+    private EmbeddingResponse requestEmbeddings(Object input, String model, Integer dimensions, String encodingFormat) {
         try {
             Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", request.getModel());
-            requestBody.put("input", request.getInput());
-            requestBody.put("dimensions", request.getDimensions());
-            requestBody.put("encoding_format", request.getEncodingFormat());
+            requestBody.put("model", model);
+            requestBody.put("input", input);
+            requestBody.put("dimensions", dimensions);
+            requestBody.put("encoding_format", encodingFormat);
 
             HttpHeaders headers = new HttpHeaders();
             headers.set("Content-Type", "application/json");
             headers.set("Authorization", "Bearer " + apiKey);
-            
+
             HttpEntity<Map<String, Object>> httpEntity = new HttpEntity<>(requestBody, headers);
-            
+
             ResponseEntity<EmbeddingResponse> response = restTemplate.exchange(
                     baseUrl,
                     HttpMethod.POST,
                     httpEntity,
                     EmbeddingResponse.class
             );
-            
+
             if (response.getStatusCode().is2xxSuccessful()) {
                 return response.getBody();
             } else {
@@ -67,4 +193,4 @@ public class AliEmbeddingService {
             throw new RuntimeException("获取向量嵌入时发生错误: " + e.getMessage(), e);
         }
     }
-} 
\ No newline at end of file
+}
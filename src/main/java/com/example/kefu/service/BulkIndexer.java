@@ -0,0 +1,251 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.response.BulkItemResult;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档批量写入
+ *
+ * 文档先在会话中累积，达到条数、字节数或时间阈值时通过一次 _bulk 请求写入；
+ * 被ES拒绝（429）的文档按指数退避重试，最终按添加顺序返回每条文档的结果。
+ */
+@Slf4j
+@Service
+public class BulkIndexer {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private LocalVectorIndexService localVectorIndexService;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Value("${elasticsearch.bulk.max-actions:500}")
+    private int maxActions;
+
+    @Value("${elasticsearch.bulk.max-bytes:5242880}")
+    private long maxBytes;
+
+    @Value("${elasticsearch.bulk.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${elasticsearch.bulk.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${elasticsearch.bulk.initial-backoff-ms:200}")
+    private long initialBackoffMillis;
+
+    /**
+     * 批量写入一组文档
+     *
+     * @param indexName 索引名称
+     * @param documents 文档列表
+     * @return 每条文档的写入结果，顺序与documents一致
+     */
+    public List<BulkItemResult> indexAll(String indexName, List<Map<String, Object>> documents) {
+        return indexAll(indexName, null, documents);
+    }
+
+    /**
+     * 按指定ID批量写入一组文档，已存在的同ID文档会被覆盖
+     *
+     * @param indexName 索引名称
+     * @param ids       文档ID列表，为空时由ES生成
+     * @param documents 文档列表
+     * @return 每条文档的写入结果，顺序与documents一致
+     */
+    public List<BulkItemResult> indexAll(String indexName, List<String> ids, List<Map<String, Object>> documents) {
+        Session session = open(indexName);
+        for (int i = 0; i < documents.size(); i++) {
+            session.add(ids != null ? ids.get(i) : null, documents.get(i));
+        }
+        return session.finish();
+    }
+
+    /**
+     * 开启一个批量写入会话，用于边生成边写入的场景
+     *
+     * @param indexName 索引名称
+     * @return 批量写入会话（非线程安全）
+     */
+    public Session open(String indexName) {
+        return new Session(indexName);
+    }
+
+    /**
+     * 批量写入会话
+     */
+    public class Session {
+
+        private final String indexName;
+
+        private final List<BulkItemResult> results = new ArrayList<>();
+
+        private final List<Integer> pendingPositions = new ArrayList<>();
+
+        private final List<Map<String, Object>> pendingDocuments = new ArrayList<>();
+
+        private BulkRequest pending = new BulkRequest();
+
+        private long firstPendingAt;
+
+        private Session(String indexName) {
+            this.indexName = indexName;
+        }
+
+        /**
+         * 添加一条文档，达到阈值时立即写入
+         *
+         * @return 文档在结果列表中的位置
+         */
+        public int add(Map<String, Object> document) {
+            return add(null, document);
+        }
+
+        /**
+         * 按指定ID添加一条文档，达到阈值时立即写入
+         *
+         * @param id 文档ID，为空时由ES生成
+         * @return 文档在结果列表中的位置
+         */
+        public int add(String id, Map<String, Object> document) {
+            int position = results.size();
+            results.add(null);
+            if (pending.numberOfActions() == 0) {
+                firstPendingAt = System.currentTimeMillis();
+            }
+            pending.add(new IndexRequest(indexName).id(id).source(document));
+            pendingPositions.add(position);
+            pendingDocuments.add(document);
+
+            if (pending.numberOfActions() >= maxActions
+                    || pending.estimatedSizeInBytes() >= maxBytes
+                    || System.currentTimeMillis() - firstPendingAt >= flushIntervalMillis) {
+                flush();
+            }
+            return position;
+        }
+
+        /**
+         * 写入剩余文档并返回全部结果
+         */
+        public List<BulkItemResult> finish() {
+            flush();
+            return results;
+        }
+
+        private void flush() {
+            if (pending.numberOfActions() == 0) {
+                return;
+            }
+            BulkRequest request = pending;
+            List<Integer> positions = new ArrayList<>(pendingPositions);
+            List<Map<String, Object>> documents = new ArrayList<>(pendingDocuments);
+            pending = new BulkRequest();
+            pendingPositions.clear();
+            pendingDocuments.clear();
+
+            execute(request, positions, documents);
+        }
+
+        /**
+         * 执行批量请求，被拒绝的文档退避后重试
+         */
+        private void execute(BulkRequest request, List<Integer> positions, List<Map<String, Object>> documents) {
+            Iterator<TimeValue> backoff = BackoffPolicy.exponentialBackoff(
+                    TimeValue.timeValueMillis(initialBackoffMillis), maxRetries).iterator();
+
+            while (true) {
+                BulkResponse response;
+                try {
+                    response = client.bulk(request, RequestOptions.DEFAULT);
+                } catch (ElasticsearchStatusException e) {
+                    if (e.status() == RestStatus.TOO_MANY_REQUESTS && backoff.hasNext()) {
+                        sleep(backoff.next());
+                        continue;
+                    }
+                    failAll(positions, e);
+                    return;
+                } catch (Exception e) {
+                    failAll(positions, e);
+                    return;
+                }
+
+                BulkRequest retryRequest = new BulkRequest();
+                List<Integer> retryPositions = new ArrayList<>();
+                List<Map<String, Object>> retryDocuments = new ArrayList<>();
+                BulkItemResponse[] items = response.getItems();
+                boolean canRetry = backoff.hasNext();
+                List<Map<String, Object>> indexed = new ArrayList<>();
+                for (int i = 0; i < items.length; i++) {
+                    BulkItemResponse item = items[i];
+                    int position = positions.get(i);
+                    if (!item.isFailed()) {
+                        results.set(position, new BulkItemResult(item.getId(), null));
+                        if (LocalVectorIndexService.INDEX_NAME.equals(indexName)) {
+                            // 同步到本地向量索引
+                            localVectorIndexService.onDocumentIndexed(item.getId(), documents.get(i));
+                            indexed.add(documents.get(i));
+                        }
+                    } else if (canRetry && item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                        retryRequest.add((IndexRequest) request.requests().get(i));
+                        retryPositions.add(position);
+                        retryDocuments.add(documents.get(i));
+                    } else {
+                        results.set(position, new BulkItemResult(null, item.getFailureMessage()));
+                    }
+                }
+                // 使查询结果缓存和相关的语义回答缓存失效
+                queryResultCache.invalidate(indexName);
+                semanticAnswerCache.onDocumentsIndexed(indexed);
+
+                if (retryRequest.numberOfActions() == 0) {
+                    return;
+                }
+                log.warn("批量写入被拒绝, 重试数量: {}, 索引: {}", retryRequest.numberOfActions(), indexName);
+                sleep(backoff.next());
+                request = retryRequest;
+                positions = retryPositions;
+                documents = retryDocuments;
+            }
+        }
+
+        private void failAll(List<Integer> positions, Exception e) {
+            log.error("批量写入失败, 数量: {}, 索引: {}", positions.size(), indexName, e);
+            for (Integer position : positions) {
+                results.set(position, new BulkItemResult(null, e.getMessage()));
+            }
+        }
+    }
+
+    private static void sleep(TimeValue delay) {
+        try {
+            Thread.sleep(delay.millis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
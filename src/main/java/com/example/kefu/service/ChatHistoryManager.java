@@ -1,53 +1,26 @@
 package com.example.kefu.service;
 
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
  * 聊天历史管理器
  * 用于存储和管理用户的聊天历史记录
+ *
+ * 每个聊天窗口只保留最近的若干轮对话，并受token预算限制，超出时最早的对话被移出；
+ * 每轮对话写入时渲染一次，读取时直接拼接渲染好的文本。
+ * 具体存储由 {@link ChatHistoryStore} 实现。
  */
 @Service
 public class ChatHistoryManager {
 
-    /**
-     * 聊天记录项
-     */
-    private static class ChatItem {
-        private String question;
-        private String answer;
-        private LocalDateTime timestamp;
-
-        public ChatItem(String question, String answer) {
-            this.question = question;
-            this.answer = answer;
-            this.timestamp = LocalDateTime.now();
-        }
-
-        public String getQuestion() {
-            return question;
-        }
-
-        public String getAnswer() {
-            return answer;
-        }
-
-        public LocalDateTime getTimestamp() {
-            return timestamp;
-        }
-    }
+    public static final String HISTORY_HEADER = "以下是之前的对话历史： ";
 
-    // 使用ConcurrentHashMap存储聊天历史，key为tableId，value为该tableId下的聊天记录列表
-    private final Map<String, List<ChatItem>> chatHistory = new ConcurrentHashMap<>();
-    
     // 聊天记录过期时间（小时）
-    private static final int EXPIRATION_HOURS = 24;
+    public static final int EXPIRATION_HOURS = 24;
+
+    @Autowired
+    private ChatHistoryStore chatHistoryStore;
 
     /**
      * 添加聊天记录
@@ -60,39 +33,20 @@ public class ChatHistoryManager {
         if (tableId == null || tableId.isEmpty()) {
             return;
         }
-        
-        chatHistory.computeIfAbsent(tableId, k -> new ArrayList<>())
-                .add(new ChatItem(question, answer));
+        chatHistoryStore.append(tableId, question, answer);
     }
 
     /**
      * 获取指定tableId的聊天历史
      *
      * @param tableId 聊天窗口ID
-     * @return 聊天历史字符串，格式为"问题：xxx
-回答：xxx
-
-"
+     * @return 聊天历史字符串，格式为"以下是之前的对话历史： 问题：xxx\n回答：xxx\n..."，没有历史时返回空字符串
      */
     public String getChatHistory(String tableId) {
-        if (tableId == null || tableId.isEmpty() || !chatHistory.containsKey(tableId)) {
-            return "";
-        }
-        
-        List<ChatItem> history = chatHistory.get(tableId);
-        if (history.isEmpty()) {
+        if (tableId == null || tableId.isEmpty()) {
             return "";
         }
-        
-        StringBuilder sb = new StringBuilder();
-        sb.append("以下是之前的对话历史： ");
-        
-        for (ChatItem item : history) {
-            sb.append("问题：").append(item.getQuestion()).append("/n");
-            sb.append("回答：").append(item.getAnswer()).append("/n");
-        }
-        
-        return sb.toString();
+        return chatHistoryStore.getHistory(tableId);
     }
 
     /**
@@ -102,23 +56,33 @@ public class ChatHistoryManager {
      */
     public void clearChatHistory(String tableId) {
         if (tableId != null && !tableId.isEmpty()) {
-            chatHistory.remove(tableId);
+            chatHistoryStore.clear(tableId);
         }
     }
 
     /**
-     * 定时清理过期的聊天记录
-     * 每小时执行一次
+     * 渲染一轮对话
      */
-    @Scheduled(fixedRate = 3600000) // 每小时执行一次
-    public void cleanupExpiredRecords() {
-        LocalDateTime expirationTime = LocalDateTime.now().minusHours(EXPIRATION_HOURS);
-        
-        chatHistory.forEach((tableId, records) -> {
-            records.removeIf(item -> item.getTimestamp().isBefore(expirationTime));
-            if (records.isEmpty()) {
-                chatHistory.remove(tableId);
+    public static String renderTurn(String question, String answer) {
+        return "问题：" + question + "\n" + "回答：" + answer + "\n";
+    }
+
+    /**
+     * 估算文本的token数：中文等非ASCII字符按每字1个token，ASCII字符按每4个1个token
+     */
+    public static int estimateTokens(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) {
+                ascii++;
+            } else {
+                other++;
             }
-        });
+        }
+        return other + (ascii + 3) / 4;
     }
 }
@@ -0,0 +1,32 @@
+package com.example.kefu.service;
+
+/**
+ * 聊天历史存储
+ * 由配置项 chat.history.store 选择实现：memory（单机内存）或 redis（多实例共享）
+ */
+public interface ChatHistoryStore {
+
+    /**
+     * 追加一轮对话
+     *
+     * @param tableId  聊天窗口ID
+     * @param question 用户问题
+     * @param answer   系统回答
+     */
+    void append(String tableId, String question, String answer);
+
+    /**
+     * 获取渲染好的聊天历史
+     *
+     * @param tableId 聊天窗口ID
+     * @return 聊天历史字符串，没有历史时返回空字符串
+     */
+    String getHistory(String tableId);
+
+    /**
+     * 清除聊天历史
+     *
+     * @param tableId 聊天窗口ID
+     */
+    void clear(String tableId);
+}
@@ -0,0 +1,489 @@
+package com.example.kefu.service;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.example.kefu.entity.UserDocument;
+import com.example.kefu.mapper.UserDocumentMapper;
+import com.example.kefu.model.response.BulkItemResult;
+import com.example.kefu.util.QaFingerprint;
+import com.example.kefu.util.SpreadsheetReader;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 文档异步处理服务
+ *
+ * 上传接口只保存文件和文档记录，解析Excel、大模型生成问答、生成向量、写入索引在后台线程池中执行，
+ * 问答分块生成，每块完成后立即写入索引。
+ * 每个阶段开始时更新 user_document 的 status / process_stage / process_message，
+ * 生成的问答保存在 qa_result 中，失败后重试时从写入索引阶段继续，不再重复调用大模型；
+ * 在生成阶段失败时重新生成全部问答，全量模式下先删除该文档上次已写入的问答。
+ * 索引文档ID为 文档ID_问答指纹前缀，重试写入会覆盖而不会重复。
+ *
+ * 增量处理（同一产品重新上传文档）：属性块指纹未变化的块直接复用索引中已有的问答，不调用大模型；
+ * 只为问答指纹不在索引中的问答生成向量并写入；处理完成后删除该产品下不再存在的问答。
+ * 同一产品的文档串行处理（认领时锁定该产品的文档记录，多个实例之间同样生效）。
+ */
+@Slf4j
+@Service
+public class DocumentIngestService {
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_PROCESSING = 1;
+    public static final int STATUS_DONE = 2;
+    public static final int STATUS_FAILED = 3;
+
+    public static final String STAGE_PARSE = "PARSE";
+    public static final String STAGE_GENERATE = "GENERATE";
+    public static final String STAGE_INDEX = "INDEX";
+
+    private static final int MAX_MESSAGE_LENGTH = 500;
+
+    private static final int ID_FINGERPRINT_LENGTH = 16;
+
+    @Autowired
+    private UserDocumentMapper userDocumentMapper;
+
+    @Autowired
+    private MinioService minioService;
+
+    @Autowired
+    private QaGenerationService qaGenerationService;
+
+    @Autowired
+    private QaIndexingService qaIndexingService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    @Qualifier("documentIngestExecutor")
+    private ThreadPoolTaskExecutor documentIngestExecutor;
+
+    @Value("${minio.document-bucket}")
+    private String documentBucket;
+
+    /**
+     * 处理中的文档超过该时间未更新，视为进程中断，重新提交
+     */
+    @Value("${document.ingest.stale-minutes:30}")
+    private int staleMinutes;
+
+    @Value("${document.ingest.incremental:true}")
+    private boolean incremental;
+
+    /**
+     * 本实例已提交到线程池的文档，避免重复提交
+     */
+    private final Set<Long> submitted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 提交文档处理任务
+     *
+     * @param documentId 文档ID
+     * @return 是否已进入处理队列（队列满时返回false，由定时任务稍后重新提交）
+     */
+    public boolean submit(Long documentId) {
+        if (!submitted.add(documentId)) {
+            return true;
+        }
+        try {
+            documentIngestExecutor.execute(() -> {
+                try {
+                    process(documentId);
+                } finally {
+                    submitted.remove(documentId);
+                }
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            submitted.remove(documentId);
+            log.warn("文档处理队列已满，稍后重新提交, documentId: {}", documentId);
+            return false;
+        }
+    }
+
+    /**
+     * 重试处理失败的文档
+     *
+     * @param documentId 文档ID
+     */
+    public void retry(Long documentId) {
+        UserDocument document = userDocumentMapper.selectById(documentId);
+        if (document == null) {
+            throw new RuntimeException("文档不存在");
+        }
+        if (document.getStatus() == null || document.getStatus() != STATUS_FAILED) {
+            throw new RuntimeException("文档未处理失败，无需重试");
+        }
+
+        UserDocument update = new UserDocument();
+        update.setStatus(STATUS_PENDING);
+        update.setProcessMessage("等待重试");
+        update.setRetryCount((document.getRetryCount() == null ? 0 : document.getRetryCount()) + 1);
+        update.setUpdateTime(LocalDateTime.now());
+        int updated = userDocumentMapper.update(update, new LambdaUpdateWrapper<UserDocument>()
+                .eq(UserDocument::getId, documentId)
+                .eq(UserDocument::getStatus, STATUS_FAILED));
+        if (updated == 0) {
+            throw new RuntimeException("文档状态已变化，请刷新后重试");
+        }
+        submit(documentId);
+    }
+
+    /**
+     * 定时重新提交待处理和中断的文档（队列满被拒绝、进程重启等情况）
+     */
+    @Scheduled(fixedDelayString = "${document.ingest.recover-interval-ms:60000}")
+    public void recoverPendingDocuments() {
+        try {
+            // 处理中但长时间未更新的文档，重置为待处理
+            UserDocument reset = new UserDocument();
+            reset.setStatus(STATUS_PENDING);
+            reset.setUpdateTime(LocalDateTime.now());
+            int stale = userDocumentMapper.update(reset, new LambdaUpdateWrapper<UserDocument>()
+                    .eq(UserDocument::getStatus, STATUS_PROCESSING)
+                    .lt(UserDocument::getUpdateTime, LocalDateTime.now().minusMinutes(staleMinutes)));
+            if (stale > 0) {
+                log.warn("重置中断的文档处理任务, 数量: {}", stale);
+            }
+
+            List<UserDocument> pending = userDocumentMapper.selectList(new LambdaQueryWrapper<UserDocument>()
+                    .select(UserDocument::getId)
+                    .eq(UserDocument::getStatus, STATUS_PENDING)
+                    .orderByAsc(UserDocument::getId));
+            for (UserDocument document : pending) {
+                if (!submitted.contains(document.getId()) && !submit(document.getId())) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("重新提交待处理文档失败", e);
+        }
+    }
+
+    /**
+     * 执行文档处理流程
+     *
+     * @param documentId 文档ID
+     */
+    void process(Long documentId) {
+        UserDocument document = userDocumentMapper.selectById(documentId);
+        if (document == null || !claim(document)) {
+            return;
+        }
+
+        String stage = STAGE_PARSE;
+        try {
+            // 已生成过问答（在写入索引阶段失败）时直接复用
+            List<Map<String, String>> qaList = null;
+            if (STAGE_INDEX.equals(document.getProcessStage())) {
+                qaList = loadQaResult(documentId);
+            }
+
+            List<Map<String, String>> existing = Collections.emptyList();
+            if (qaList == null) {
+                updateStage(documentId, stage, "解析文档");
+                Map<String, String> productInfo = readProductInfo(document);
+                List<Map<String, String>> chunks = qaGenerationService.splitIntoChunks(productInfo);
+
+                // 属性块未变化时复用已有问答
+                List<Map<String, String>> kept = new ArrayList<>();
+                List<Map<String, String>> changedChunks = chunks;
+                if (incremental) {
+                    existing = findExisting(document);
+                    Set<String> chunkFingerprints = new HashSet<>();
+                    changedChunks = new ArrayList<>();
+                    for (Map<String, String> chunk : chunks) {
+                        String chunkFingerprint = QaFingerprint.ofAttributes(chunk);
+                        chunkFingerprints.add(chunkFingerprint);
+                        if (!containsChunk(existing, chunkFingerprint)) {
+                            changedChunks.add(chunk);
+                        }
+                    }
+                    for (Map<String, String> qa : existing) {
+                        if (chunkFingerprints.contains(qa.get(QaGenerationService.CHUNK_FINGERPRINT))) {
+                            kept.add(toQa(qa));
+                        }
+                    }
+                    log.info("增量处理, documentId: {}, 属性块: {}, 需要生成: {}, 复用问答: {}",
+                            documentId, chunks.size(), changedChunks.size(), kept.size());
+                }
+
+                // 上次在生成阶段失败时，已完成的块已经写入索引；重新生成的问答指纹不同，
+                // 全量模式下先删除该文档上次写入的问答，避免残留重复或矛盾的问答（增量模式会复用或删除它们）
+                if (!incremental && STAGE_GENERATE.equals(document.getProcessStage())) {
+                    qaIndexingService.deleteByDocument(document.getUserId(), documentId);
+                }
+
+                // 分块并行生成问答，每块完成后立即为新问答生成向量并写入索引
+                stage = STAGE_GENERATE;
+                updateStage(documentId, stage, "生成问答并写入索引");
+                Set<String> indexed = indexedFingerprints(existing);
+                List<String> failures = Collections.synchronizedList(new ArrayList<>());
+                List<Map<String, String>> generated = qaGenerationService.generateChunks(changedChunks,
+                        (offset, pairs) -> failures.addAll(indexQaPairs(document, withoutIndexed(pairs, indexed))));
+                qaList = new ArrayList<>(kept);
+                qaList.addAll(generated);
+                saveQaResult(documentId, qaList);
+
+                if (!failures.isEmpty()) {
+                    stage = STAGE_INDEX;
+                    throw indexFailure(failures, qaList.size());
+                }
+            } else {
+                stage = STAGE_INDEX;
+                updateStage(documentId, stage, "生成向量并写入索引, 问答数量: " + qaList.size());
+                List<Map<String, String>> toIndex = qaList;
+                if (incremental) {
+                    existing = findExisting(document);
+                    toIndex = withoutIndexed(qaList, indexedFingerprints(existing));
+                }
+                List<String> failures = indexQaPairs(document, toIndex);
+                if (!failures.isEmpty()) {
+                    throw indexFailure(failures, toIndex.size());
+                }
+            }
+
+            String summary = "问答数量: " + qaList.size();
+            if (incremental) {
+                int added = withoutIndexed(qaList, indexedFingerprints(existing)).size();
+                long deleted = deleteStale(document, qaList);
+                summary += ", 新增: " + added + ", 保留: " + (qaList.size() - added) + ", 删除: " + deleted;
+            }
+
+            UserDocument done = new UserDocument();
+            done.setId(documentId);
+            done.setStatus(STATUS_DONE);
+            done.setProcessMessage("处理完成, " + summary);
+            done.setUpdateTime(LocalDateTime.now());
+            userDocumentMapper.updateById(done);
+            log.info("文档处理完成, documentId: {}, {}", documentId, summary);
+        } catch (Exception e) {
+            log.error("文档处理失败, documentId: {}, 阶段: {}", documentId, stage, e);
+            UserDocument failed = new UserDocument();
+            failed.setId(documentId);
+            failed.setStatus(STATUS_FAILED);
+            failed.setProcessStage(stage);
+            failed.setProcessMessage(truncate("处理失败: " + e.getMessage()));
+            failed.setUpdateTime(LocalDateTime.now());
+            userDocumentMapper.updateById(failed);
+        }
+    }
+
+    /**
+     * 将文档从待处理改为处理中，多个实例同时处理同一文档时只有一个能成功
+     *
+     * 同一产品同时只处理一个文档：增量处理会删除产品下不在本次结果中的问答，并发执行会互相删除对方刚写入的问答。
+     * 在事务中先锁定该产品的所有文档记录（SELECT ... FOR UPDATE），有其他文档处理中时不认领，
+     * 文档保持待处理状态，由定时任务稍后重新提交；多个实例同时认领同一产品的文档时在行锁上串行。
+     */
+    private boolean claim(UserDocument document) {
+        Boolean claimed = transactionTemplate.execute(status -> {
+            LambdaQueryWrapper<UserDocument> productQuery = new LambdaQueryWrapper<UserDocument>()
+                    .select(UserDocument::getId, UserDocument::getStatus)
+                    .eq(UserDocument::getUserId, document.getUserId());
+            if (document.getProductId() != null) {
+                productQuery.eq(UserDocument::getProductId, document.getProductId());
+            } else if (document.getProductName() != null) {
+                productQuery.eq(UserDocument::getProductName, document.getProductName());
+            } else {
+                productQuery.isNull(UserDocument::getProductId).isNull(UserDocument::getProductName);
+            }
+            for (UserDocument sibling : userDocumentMapper.selectList(productQuery.last("FOR UPDATE"))) {
+                if (!sibling.getId().equals(document.getId()) && sibling.getStatus() != null
+                        && sibling.getStatus() == STATUS_PROCESSING) {
+                    log.info("同一产品的文档正在处理，稍后重新提交, documentId: {}, 处理中: {}",
+                            document.getId(), sibling.getId());
+                    return false;
+                }
+            }
+
+            UserDocument update = new UserDocument();
+            update.setStatus(STATUS_PROCESSING);
+            update.setUpdateTime(LocalDateTime.now());
+            return userDocumentMapper.update(update, new LambdaUpdateWrapper<UserDocument>()
+                    .eq(UserDocument::getId, document.getId())
+                    .eq(UserDocument::getStatus, STATUS_PENDING)) > 0;
+        });
+        return Boolean.TRUE.equals(claimed);
+    }
+
+    private void updateStage(Long documentId, String stage, String message) {
+        UserDocument update = new UserDocument();
+        update.setId(documentId);
+        update.setProcessStage(stage);
+        update.setProcessMessage(message);
+        update.setUpdateTime(LocalDateTime.now());
+        userDocumentMapper.updateById(update);
+    }
+
+    /**
+     * 从MinIO流式读取表格（xlsx/xls，所有工作表），第一列为属性名，第二列为属性值
+     */
+    private Map<String, String> readProductInfo(UserDocument document) throws Exception {
+        String objectName = minioService.extractBucketAndObjectFromUrl(document.getFileUrl())[1];
+        try (InputStream inputStream = minioService.downloadFile(documentBucket, objectName)) {
+            return SpreadsheetReader.readKeyValues(inputStream);
+        }
+    }
+
+    /**
+     * 分组并行生成向量并写入索引，文档ID为 文档ID_问答指纹前缀
+     *
+     * @return 失败原因列表
+     */
+    private List<String> indexQaPairs(UserDocument document, List<Map<String, String>> qaList) {
+        if (qaList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Object> baseFields = new HashMap<>();
+        baseFields.put("userId", document.getUserId());
+        baseFields.put("productId", document.getProductId());
+        baseFields.put("productName", document.getProductName());
+        baseFields.put("shopId", document.getShopId());
+        baseFields.put("shopName", document.getShopName());
+        baseFields.put("documentId", document.getId());
+
+        List<String> ids = new ArrayList<>(qaList.size());
+        for (Map<String, String> qa : qaList) {
+            ids.add(document.getId() + "_" + fingerprint(qa).substring(0, ID_FINGERPRINT_LENGTH));
+        }
+
+        List<BulkItemResult> results = qaIndexingService.indexQaPairs(document.getUserId(), baseFields, qaList, ids);
+        List<String> failures = new ArrayList<>();
+        for (BulkItemResult result : results) {
+            if (!result.isSuccess()) {
+                failures.add(result.getFailureMessage());
+            }
+        }
+        return failures;
+    }
+
+    private List<Map<String, String>> findExisting(UserDocument document) throws Exception {
+        return qaIndexingService.findExisting(document.getUserId(), document.getProductId(), document.getProductName());
+    }
+
+    /**
+     * 删除产品下不再存在的问答；本次没有问答时不删除，避免大模型异常导致清空已有数据
+     */
+    private long deleteStale(UserDocument document, List<Map<String, String>> qaList) throws Exception {
+        if (qaList.isEmpty()) {
+            log.warn("本次处理没有问答，跳过删除旧问答, documentId: {}", document.getId());
+            return 0;
+        }
+        return qaIndexingService.deleteStale(document.getUserId(), document.getProductId(),
+                document.getProductName(), fingerprints(qaList));
+    }
+
+    private static boolean containsChunk(List<Map<String, String>> existing, String chunkFingerprint) {
+        for (Map<String, String> qa : existing) {
+            if (chunkFingerprint.equals(qa.get(QaGenerationService.CHUNK_FINGERPRINT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 已有问答转换为 qa_result 中的问答格式
+     */
+    private static Map<String, String> toQa(Map<String, String> existing) {
+        Map<String, String> qa = new LinkedHashMap<>();
+        qa.put("question", existing.get("question"));
+        qa.put("answer", existing.get("answer"));
+        qa.put(QaGenerationService.CHUNK_FINGERPRINT, existing.get(QaGenerationService.CHUNK_FINGERPRINT));
+        return qa;
+    }
+
+    private static String fingerprint(Map<String, String> qa) {
+        return QaFingerprint.of(qa.get("question"), qa.get("answer"));
+    }
+
+    private static Set<String> fingerprints(List<Map<String, String>> qaList) {
+        Set<String> result = new HashSet<>();
+        for (Map<String, String> qa : qaList) {
+            result.add(fingerprint(qa));
+        }
+        return result;
+    }
+
+    /**
+     * 索引中已有问答的指纹（旧数据没有指纹字段，视为未写入，会重新写入并删除旧文档）
+     */
+    private static Set<String> indexedFingerprints(List<Map<String, String>> existing) {
+        Set<String> result = new HashSet<>();
+        for (Map<String, String> qa : existing) {
+            if (qa.get("fingerprint") != null) {
+                result.add(qa.get("fingerprint"));
+            }
+        }
+        return result;
+    }
+
+    private static List<Map<String, String>> withoutIndexed(List<Map<String, String>> qaList, Set<String> indexed) {
+        if (indexed.isEmpty()) {
+            return qaList;
+        }
+        List<Map<String, String>> result = new ArrayList<>();
+        for (Map<String, String> qa : qaList) {
+            if (!indexed.contains(fingerprint(qa))) {
+                result.add(qa);
+            }
+        }
+        return result;
+    }
+
+    private static RuntimeException indexFailure(List<String> failures, int total) {
+        return new RuntimeException("保存QA对失败, 失败数量: " + failures.size() + "/" + total
+                + ", 原因: " + failures.get(0));
+    }
+
+    private void saveQaResult(Long documentId, List<Map<String, String>> qaList) throws Exception {
+        UserDocument update = new UserDocument();
+        update.setId(documentId);
+        update.setQaResult(objectMapper.writeValueAsString(qaList));
+        update.setQaCount(qaList.size());
+        update.setUpdateTime(LocalDateTime.now());
+        userDocumentMapper.updateById(update);
+    }
+
+    private List<Map<String, String>> loadQaResult(Long documentId) {
+        UserDocument document = userDocumentMapper.selectOne(new LambdaQueryWrapper<UserDocument>()
+                .select(UserDocument::getId, UserDocument::getQaResult)
+                .eq(UserDocument::getId, documentId));
+        if (document == null || document.getQaResult() == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(document.getQaResult(), new TypeReference<List<Map<String, String>>>() {});
+        } catch (Exception e) {
+            log.warn("读取已生成的问答失败，重新生成, documentId: {}", documentId, e);
+            return null;
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= MAX_MESSAGE_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_MESSAGE_LENGTH);
+    }
+}
@@ -1,13 +1,20 @@
 package com.example.kefu.service;
 
 import com.example.kefu.entity.es.ChatMessage;
+import com.example.kefu.service.impl.ScriptScoreVectorSearchStrategy;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
@@ -18,8 +25,6 @@ import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
-import org.elasticsearch.index.query.functionscore.ScriptScoreFunctionBuilder;
 import org.elasticsearch.index.query.functionscore.ScriptScoreQueryBuilder;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
@@ -28,14 +33,26 @@ import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import com.example.kefu.model.response.BulkItemResult;
+import com.example.kefu.model.response.SearchHits;
 import com.example.kefu.model.response.SearchResult;
+import com.example.kefu.util.RankFusion;
+import com.example.kefu.util.SearchResponseParser;
+import com.example.kefu.util.VectorMath;
+import com.example.kefu.util.VectorQuantizer;
 
+@Slf4j
 @Service
 public class ElasticsearchService {
 
@@ -45,8 +62,79 @@ public class ElasticsearchService {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private List<VectorSearchStrategy> vectorSearchStrategies;
+
+    @Autowired
+    private LocalVectorIndexService localVectorIndexService;
+
+    @Autowired
+    private BulkIndexer bulkIndexer;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private VectorNormalizationService vectorNormalizationService;
+
+    /**
+     * 向量检索策略：script（精确检索）或 knn（近似检索）
+     */
+    @Value("${elasticsearch.vector-search.strategy:script}")
+    private String vectorSearchStrategyName;
+
+    /**
+     * 混合检索融合方式：rrf（按排名融合）或 weighted（各路分数归一化后加权求和）
+     */
+    @Value("${elasticsearch.hybrid.fusion:rrf}")
+    private String hybridFusion;
+
+    @Value("${elasticsearch.hybrid.rrf-k:" + RankFusion.DEFAULT_RRF_K + "}")
+    private int hybridRrfK;
+
+    /**
+     * 混合检索每一路的检索数量 = 返回数量 * 倍数
+     */
+    @Value("${elasticsearch.hybrid.leg-size-multiplier:2}")
+    private int hybridLegSizeMultiplier;
+
+    private final Map<String, VectorSearchStrategy> vectorSearchStrategyMap = new HashMap<>();
+
     private static final String INDEX_NAME = "chat_messages";
 
+    /**
+     * 查询缓存使用的序列化器，Map字段按名称排序
+     */
+    private static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    /**
+     * 未指定返回字段时默认排除的向量字段，包括 VectorQuantizer 写入的量化码和缩放因子
+     */
+    private static final List<String> DEFAULT_EXCLUDE_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "question_vector", VectorQuantizer.codeField("question_vector"), VectorQuantizer.scaleField("question_vector"),
+            "answer_vector", VectorQuantizer.codeField("answer_vector"), VectorQuantizer.scaleField("answer_vector")));
+
+    /**
+     * _msearch 请求体格式
+     */
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    @PostConstruct
+    public void initVectorSearchStrategies() {
+        for (VectorSearchStrategy strategy : vectorSearchStrategies) {
+            vectorSearchStrategyMap.put(strategy.getName(), strategy);
+        }
+        if (!vectorSearchStrategyMap.containsKey(vectorSearchStrategyName)) {
+            log.warn("未知的向量检索策略: {}，使用精确检索", vectorSearchStrategyName);
+            vectorSearchStrategyName = ScriptScoreVectorSearchStrategy.NAME;
+        }
+        log.info("向量检索策略: {}", vectorSearchStrategyName);
+    }
+
     /**
      * 创建索引
      */
@@ -64,6 +152,11 @@ public class ElasticsearchService {
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
+            // 消息向量写入时已归一化，查询使用点积打分
+            builder.startObject("_meta");
+            builder.field(VectorNormalizationService.META_KEY, true);
+            builder.endObject();
+
             builder.startObject("properties");
             {
                 builder.startObject("content");
@@ -99,6 +192,7 @@ public class ElasticsearchService {
         request.source(builder);
 
         client.indices().create(request, RequestOptions.DEFAULT);
+        vectorNormalizationService.forget(INDEX_NAME);
         return true;
     }
 
@@ -126,6 +220,10 @@ public class ElasticsearchService {
      * 保存聊天消息
      */
     public String saveMessage(ChatMessage message) throws IOException {
+        // 向量归一化为单位长度，相似度用点积计算
+        if (message.getVector() != null) {
+            message.setVector(VectorMath.normalize(message.getVector()));
+        }
         IndexRequest request = new IndexRequest(INDEX_NAME);
         request.source(objectMapper.writeValueAsString(message), XContentType.JSON);
         return client.index(request, RequestOptions.DEFAULT).getId();
@@ -171,32 +269,21 @@ public class ElasticsearchService {
         SearchRequest request = new SearchRequest(INDEX_NAME);
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
 
+        // 消息向量已归一化时用点积代替余弦相似度，分数加1.0保证非负
+        boolean normalized = vectorNormalizationService.isNormalized(INDEX_NAME);
         Map<String, Object> params = new HashMap<>();
-        params.put("query_vector", queryVector);
+        params.put("query_vector", normalized ? VectorMath.normalize(queryVector) : queryVector);
 
         Script script = new Script(
                 ScriptType.INLINE,
                 "painless",
-                "double dotProduct = 0.0; " +
-                "for (int i = 0; i < params.query_vector.length; i++) { " +
-                "    dotProduct += params.query_vector[i] * doc['vector'][i]; " +
-                "} " +
-                "double magnitude = 0.0; " +
-                "for (int i = 0; i < doc['vector'].length; i++) { " +
-                "    magnitude += doc['vector'][i] * doc['vector'][i]; " +
-                "} " +
-                "double queryMagnitude = 0.0; " +
-                "for (int i = 0; i < params.query_vector.length; i++) { " +
-                "    queryMagnitude += params.query_vector[i] * params.query_vector[i]; " +
-                "} " +
-                "return dotProduct / Math.sqrt(magnitude * queryMagnitude);",
+                VectorSearchStrategy.scoreScript("vector", normalized),
                 params
         );
 
-        ScriptScoreFunctionBuilder scoreFunction = new ScriptScoreFunctionBuilder(script);
-        FunctionScoreQueryBuilder functionScoreQuery = QueryBuilders.functionScoreQuery(scoreFunction);
+        ScriptScoreQueryBuilder scriptScoreQuery = QueryBuilders.scriptScoreQuery(QueryBuilders.matchAllQuery(), script);
 
-        sourceBuilder.query(functionScoreQuery);
+        sourceBuilder.query(scriptScoreQuery);
         sourceBuilder.size(size);
 
         request.source(sourceBuilder);
@@ -237,6 +324,7 @@ public class ElasticsearchService {
 
         // 执行创建索引
         CreateIndexResponse createIndexResponse = client.indices().create(request, RequestOptions.DEFAULT);
+        vectorNormalizationService.forget(indexName);
 
         // 返回是否创建成功
         return createIndexResponse.isAcknowledged();
@@ -252,9 +340,36 @@ public class ElasticsearchService {
         IndexRequest request = new IndexRequest(indexName);
         request.source(document);
         IndexResponse response = client.index(request, RequestOptions.DEFAULT);
+        queryResultCache.invalidate(indexName);
+        if (LocalVectorIndexService.INDEX_NAME.equals(indexName)) {
+            // 同步到本地向量索引
+            localVectorIndexService.onDocumentIndexed(response.getId(), document);
+            semanticAnswerCache.onDocumentsIndexed(Collections.singletonList(document));
+        }
         return response.getId();
     }
 
+    /**
+     * 批量保存文档到指定的索引
+     * @param indexName 索引名称
+     * @param documents 文档列表
+     * @return 每条文档的写入结果，顺序与documents一致
+     */
+    public List<BulkItemResult> saveDocumentsToIndex(String indexName, List<Map<String, Object>> documents) {
+        return bulkIndexer.indexAll(indexName, documents);
+    }
+
+    /**
+     * 按指定ID批量保存文档到指定的索引，已存在的同ID文档会被覆盖
+     * @param indexName 索引名称
+     * @param ids 文档ID列表
+     * @param documents 文档列表
+     * @return 每条文档的写入结果，顺序与documents一致
+     */
+    public List<BulkItemResult> saveDocumentsToIndex(String indexName, List<String> ids, List<Map<String, Object>> documents) {
+        return bulkIndexer.indexAll(indexName, ids, documents);
+    }
+
     /**
      * 在指定索引中搜索相似文档
      * @param indexName 索引名称
@@ -352,6 +467,12 @@ public class ElasticsearchService {
             
             // 执行删除索引
             client.indices().delete(request, RequestOptions.DEFAULT);
+            queryResultCache.invalidate(indexName);
+            vectorNormalizationService.forget(indexName);
+            if (LocalVectorIndexService.INDEX_NAME.equals(indexName)) {
+                semanticAnswerCache.invalidateAll();
+                localVectorIndexService.reset();
+            }
             
             // 返回删除成功
             return true;
@@ -372,6 +493,115 @@ public class ElasticsearchService {
      * @throws IOException 如果查询过程中发生IO异常
      */
     public Map<String, Object> executeDslQuery(String endpoint, String method, String dslQuery) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        String responseBody = performRequest(endpoint, method, dslQuery, result);
+
+        // 写操作（非查询）使相关缓存失效
+        if (!"GET".equalsIgnoreCase(method) && !endpoint.contains("_search") && !endpoint.contains("_count")) {
+            invalidateCaches(endpoint);
+        }
+
+        // 尝试将响应体解析为JSON
+        try {
+            result.put("body", objectMapper.readValue(responseBody, Map.class));
+        } catch (Exception e) {
+            // 如果无法解析为JSON，则作为字符串返回
+            result.put("body", responseBody);
+        }
+        
+        return result;
+    }
+
+    /**
+     * 执行 _search 查询，响应流式解析为命中记录；相同索引、相同DSL的结果在索引没有写入前直接从缓存返回
+     *
+     * @param indexName 索引名称
+     * @param dslQuery DSL查询
+     * @param minScore 分数阈值，只保留分数大于该值的命中
+     * @param fields 选取的源数据字段，为null时选取除向量字段外的所有字段
+     * @return 命中结果（可能是缓存的共享对象，调用方不要修改）
+     * @throws IOException 如果查询过程中发生IO异常
+     */
+    private SearchHits search(String indexName, Map<String, Object> dslQuery, double minScore,
+                              List<String> fields) throws IOException {
+        // 字段按名称排序，相同查询得到相同的JSON
+        String dslQueryJson = CANONICAL_MAPPER.writeValueAsString(dslQuery);
+        QueryResultCache.Ticket ticket = queryResultCache.open(indexName,
+                dslQueryJson + "\u0001" + minScore + "\u0001" + fields);
+        SearchHits cached = queryResultCache.get(ticket);
+        if (cached != null) {
+            return cached;
+        }
+
+        org.elasticsearch.client.Request request = new org.elasticsearch.client.Request("GET", "/" + indexName + "/_search");
+        request.setJsonEntity(dslQueryJson);
+        org.elasticsearch.client.Response response = client.getLowLevelClient().performRequest(request);
+        return readHits(response, ticket, minScore, fields);
+    }
+
+    /**
+     * 异步执行 _search 查询，不占用调用线程；缓存与解析同 {@link #search}
+     *
+     * @return 命中结果，查询失败时以异常完成
+     */
+    private CompletableFuture<SearchHits> searchAsync(String indexName, Map<String, Object> dslQuery, double minScore,
+                                                      List<String> fields) {
+        CompletableFuture<SearchHits> future = new CompletableFuture<>();
+        String dslQueryJson;
+        try {
+            dslQueryJson = CANONICAL_MAPPER.writeValueAsString(dslQuery);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        QueryResultCache.Ticket ticket = queryResultCache.open(indexName, dslQueryJson + "\u0001" + minScore + "\u0001" + fields);
+        SearchHits cached = queryResultCache.get(ticket);
+        if (cached != null) {
+            future.complete(cached);
+            return future;
+        }
+
+        org.elasticsearch.client.Request request = new org.elasticsearch.client.Request("GET", "/" + indexName + "/_search");
+        request.setJsonEntity(dslQueryJson);
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(org.elasticsearch.client.Response response) {
+                try {
+                    future.complete(readHits(response, ticket, minScore, fields));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 流式解析 _search 响应并写入查询缓存
+     */
+    private SearchHits readHits(org.elasticsearch.client.Response response, QueryResultCache.Ticket ticket,
+                                double minScore, List<String> fields) throws IOException {
+        SearchHits hits;
+        try (java.io.InputStream is = response.getEntity().getContent()) {
+            hits = SearchResponseParser.parse(is, minScore, fields);
+        }
+        long length = response.getEntity().getContentLength();
+        queryResultCache.put(ticket, hits, length > 0 ? length : hits.getHits().size() * 1024L);
+        return hits;
+    }
+
+    /**
+     * 通过低级客户端执行请求，状态码写入result
+     *
+     * @return 响应体
+     */
+    private String performRequest(String endpoint, String method, String dslQuery,
+                                  Map<String, Object> result) throws IOException {
         // 创建低级客户端请求
         org.elasticsearch.client.Request request = new org.elasticsearch.client.Request(
             method,
@@ -386,14 +616,10 @@ public class ElasticsearchService {
         // 执行请求
         org.elasticsearch.client.Response response = client.getLowLevelClient().performRequest(request);
         
-        // 解析响应
-        Map<String, Object> result = new HashMap<>();
-        
         // 获取状态码
         result.put("statusCode", response.getStatusLine().getStatusCode());
         
         // 获取响应体
-        String responseBody;
         try (java.io.InputStream is = response.getEntity().getContent();
              java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.InputStreamReader(is, java.nio.charset.StandardCharsets.UTF_8))) {
             
@@ -402,18 +628,29 @@ public class ElasticsearchService {
             while ((line = reader.readLine()) != null) {
                 sb.append(line);
             }
-            responseBody = sb.toString();
+            return sb.toString();
         }
-        
-        // 尝试将响应体解析为JSON
-        try {
-            result.put("body", objectMapper.readValue(responseBody, Map.class));
-        } catch (Exception e) {
-            // 如果无法解析为JSON，则作为字符串返回
-            result.put("body", responseBody);
+    }
+
+    /**
+     * 原始请求写入了索引：endpoint第一段为索引名时只使该索引失效，否则全部失效
+     */
+    private void invalidateCaches(String endpoint) {
+        String path = endpoint.startsWith("/") ? endpoint.substring(1) : endpoint;
+        int slash = path.indexOf('/');
+        String target = slash >= 0 ? path.substring(0, slash) : path;
+        if (target.isEmpty() || target.startsWith("_") || target.contains(",") || target.contains("*")) {
+            queryResultCache.invalidateAll();
+            semanticAnswerCache.invalidateAll();
+            localVectorIndexService.reset();
+            return;
+        }
+        queryResultCache.invalidate(target);
+        if (target.equals(LocalVectorIndexService.INDEX_NAME)) {
+            // 对qa_vectors的写操作无法确定影响范围，清空语义回答缓存，本地向量索引从ES重建
+            semanticAnswerCache.invalidateAll();
+            localVectorIndexService.reset();
         }
-        
-        return result;
     }
 
     /**
@@ -526,28 +763,22 @@ public class ElasticsearchService {
      * @return script_score查询条件
      */
     public Map<String, Object> buildVectorScriptQuery(Map<String, Object> query, float[] vector, String vectorField) {
-        // 构建script部分
-        Map<String, Object> script = new HashMap<>();
-        script.put("source", "cosineSimilarity(params.query_vector, '" + vectorField + "') + 1.0");
-        
-        Map<String, Object> params = new HashMap<>();
-        params.put("query_vector", vector);
-        script.put("params", params);
-        
-        // 构建script_score部分
-        Map<String, Object> scriptScore = new HashMap<>();
-        scriptScore.put("script", script);
-        
-        // 构建function_score部分
-        Map<String, Object> functionScore = new HashMap<>();
-        functionScore.put("query", query);
-        functionScore.put("script_score", scriptScore);
-        
-        // 构建最终查询
-        Map<String, Object> result = new HashMap<>();
-        result.put("function_score", functionScore);
-        
-        return result;
+        return buildVectorScriptQuery(query, vector, vectorField, false);
+    }
+
+    /**
+     * 构建向量相似度查询（script_score查询），索引向量已归一化时使用点积打分
+     * 
+     * @param query 基础查询条件
+     * @param vector 查询向量（normalized为true时需已归一化）
+     * @param vectorField 向量字段名
+     * @param normalized 索引中的向量是否都已归一化
+     * @return script_score查询条件
+     */
+    public Map<String, Object> buildVectorScriptQuery(Map<String, Object> query, float[] vector, String vectorField,
+                                                      boolean normalized) {
+        return vectorSearchStrategyMap.get(ScriptScoreVectorSearchStrategy.NAME)
+                .buildQuery(query, vector, vectorField, 0, normalized);
     }
     
     /**
@@ -612,6 +843,15 @@ public class ElasticsearchService {
         return dslQuery;
     }
     
+    /**
+     * 设置分数阈值（min_score），低于阈值的文档不会返回；不过滤时不设置
+     */
+    private static void applyMinScore(Map<String, Object> dslQuery, double minScore) {
+        if (!Double.isInfinite(minScore) && !Double.isNaN(minScore)) {
+            dslQuery.put("min_score", minScore);
+        }
+    }
+
     /**
      * 重载原有的buildDslQuery方法，保持向后兼容
      */
@@ -644,47 +884,54 @@ public class ElasticsearchService {
      * @param includeFields 要包含的字段列表（可为null）
      * @param excludeFields 要排除的字段列表（可为null）
      * @param vectorField 向量字段名称，默认为"question_vector"
-     * @return 查询结果
+     * @return 分数高于阈值的命中结果
      * @throws IOException 如果查询失败
      */
-    public Map<String, Object> searchByVector(String indexName, Long userId, String shopName, 
+    public SearchHits searchByVector(String indexName, Long userId, String shopName, 
                                              String productName, float[] vector, int size, 
                                              float threshold, List<String> includeFields, 
                                              List<String> excludeFields, String vectorField) throws IOException {
-        // 构建必须满足的条件
-        List<Map<String, Object>> mustConditions = new ArrayList<>();
-        
-        // 用户ID精确匹配
-        mustConditions.add(buildTermQuery("userId", userId));
-        
-        // 如果提供了店铺名称，添加店铺名称精确匹配
-        if (shopName != null && !shopName.trim().isEmpty()) {
-            mustConditions.add(buildTermQuery("shopName", shopName));
-        }
-        
-        // 如果提供了产品名称，添加产品名称模糊匹配（而不是精确匹配）
-        if (productName != null && !productName.trim().isEmpty()) {
-            mustConditions.add(buildMatchQuery("productName", productName));
+        // 本地向量索引已就绪时直接在进程内检索
+        if (userId != null && localVectorIndexService.canServe(indexName, vectorField)) {
+            return localVectorIndexService.search(userId, shopName, productName, vector, size, threshold,
+                    includeFields, excludeFields);
         }
+
+        // 用户、店铺、产品过滤条件
+        Map<String, Object> boolQuery = buildBoolQuery(buildScopeConditions(userId, shopName, productName), null, null);
         
-        // 构建bool查询
-        Map<String, Object> boolQuery = buildBoolQuery(mustConditions, null, null);
+        // 索引向量已归一化时查询向量也归一化，用点积打分
+        boolean normalized = vectorNormalizationService.isNormalized(indexName);
+        float[] queryVector = normalized ? VectorMath.normalize(vector) : vector;
         
-        // 构建向量脚本查询
-        Map<String, Object> vectorQuery = buildVectorScriptQuery(boolQuery, vector, vectorField);
+        // 按配置的策略构建向量查询，过滤条件作为前置过滤
+        VectorSearchStrategy strategy = vectorSearchStrategyMap.get(vectorSearchStrategyName);
+        Map<String, Object> vectorQuery = strategy.buildQuery(boolQuery, queryVector, vectorField, size, normalized);
         
-        // 构建完整的DSL查询
+        // 构建完整的DSL查询，分数阈值由ES过滤
         Map<String, Object> dslQuery = buildDslQuery(vectorQuery, size, null, null, includeFields, excludeFields);
+        applyMinScore(dslQuery, threshold);
         
         // 执行查询
-        String dslQueryJson = convertToJson(dslQuery);
-        return executeDslQuery(indexName + "/_search", "GET", dslQueryJson);
+        try {
+            return search(indexName, dslQuery, threshold, includeFields);
+        } catch (ResponseException e) {
+            if (ScriptScoreVectorSearchStrategy.NAME.equals(strategy.getName())) {
+                throw e;
+            }
+            // 集群版本不支持或字段未建向量索引时，退回精确检索
+            log.warn("向量检索策略 {} 执行失败，退回精确检索: {}", strategy.getName(), e.getMessage());
+            Map<String, Object> fallbackQuery = buildVectorScriptQuery(boolQuery, queryVector, vectorField, normalized);
+            dslQuery = buildDslQuery(fallbackQuery, size, null, null, includeFields, excludeFields);
+            applyMinScore(dslQuery, threshold);
+            return search(indexName, dslQuery, threshold, includeFields);
+        }
     }
     
     /**
      * 重载原有的searchByVector方法，保持向后兼容
      */
-    public Map<String, Object> searchByVector(String indexName, Long userId, String shopName, 
+    public SearchHits searchByVector(String indexName, Long userId, String shopName, 
                                              String productName, float[] vector, int size, 
                                              float threshold, List<String> includeFields, 
                                              List<String> excludeFields) throws IOException {
@@ -696,12 +943,12 @@ public class ElasticsearchService {
     /**
      * 重载原有的searchByVector方法，保持向后兼容
      */
-    public Map<String, Object> searchByVector(String indexName, Long userId, String shopName, 
+    public SearchHits searchByVector(String indexName, Long userId, String shopName, 
                                              String productName, float[] vector, int size, 
                                              float threshold) throws IOException {
         // 默认排除向量字段，使用question_vector字段
         return searchByVector(indexName, userId, shopName, productName, vector, size, threshold, 
-                             null, Arrays.asList("question_vector", "answer_vector"), "question_vector");
+                             null, DEFAULT_EXCLUDE_FIELDS, "question_vector");
     }
 
     /**
@@ -716,58 +963,81 @@ public class ElasticsearchService {
      * @param size 返回结果数量
      * @param includeFields 要包含的字段列表（可为null）
      * @param excludeFields 要排除的字段列表（可为null）
-     * @return 查询结果
+     * @param minScore 分数阈值，只返回分数大于该值的命中
+     * @return 分数高于阈值的命中结果
      * @throws IOException 如果查询失败
      */
-    public Map<String, Object> searchByText(String indexName, String queryText, List<String> fields,
+    public SearchHits searchByText(String indexName, String queryText, List<String> fields,
                                           Long userId, String shopName, String productName, 
                                           int size, List<String> includeFields, 
-                                          List<String> excludeFields) throws IOException {
-        // 构建必须满足的条件
+                                          List<String> excludeFields, double minScore) throws IOException {
+        Map<String, Object> dslQuery = buildTextDslQuery(queryText, fields, userId, shopName, productName, size,
+                includeFields, excludeFields, minScore);
+        
+        // 执行查询
+        return search(indexName, dslQuery, minScore, includeFields);
+    }
+
+    /**
+     * 构建全文检索DSL：多字段模糊匹配 + 用户、店铺、产品过滤条件，按分数降序
+     */
+    private Map<String, Object> buildTextDslQuery(String queryText, List<String> fields, Long userId,
+                                                  String shopName, String productName, int size,
+                                                  List<String> includeFields, List<String> excludeFields,
+                                                  double minScore) {
         List<Map<String, Object>> mustConditions = new ArrayList<>();
         
         // 添加多字段模糊匹配查询
         mustConditions.add(buildMultiMatchQuery(fields, queryText, "best_fields", 0.3f));
+        mustConditions.addAll(buildScopeConditions(userId, shopName, productName));
+        
+        // 构建完整的DSL查询
+        Map<String, Object> dslQuery = buildDslQuery(buildBoolQuery(mustConditions, null, null), size,
+                "_score", "desc", includeFields, excludeFields);
+        applyMinScore(dslQuery, minScore);
+        return dslQuery;
+    }
+
+    /**
+     * 构建用户、店铺、产品过滤条件，为空的条件不添加
+     */
+    private List<Map<String, Object>> buildScopeConditions(Long userId, String shopName, String productName) {
+        List<Map<String, Object>> conditions = new ArrayList<>();
         
         // 如果提供了用户ID，添加用户ID精确匹配
         if (userId != null) {
-            mustConditions.add(buildTermQuery("userId", userId));
+            conditions.add(buildTermQuery("userId", userId));
         }
         
         // 如果提供了店铺名称，添加店铺名称精确匹配
         if (shopName != null && !shopName.trim().isEmpty()) {
-            mustConditions.add(buildTermQuery("shopName", shopName));
+            conditions.add(buildTermQuery("shopName", shopName));
         }
         
         // 如果提供了产品名称，添加产品名称模糊匹配（而不是精确匹配）
         if (productName != null && !productName.trim().isEmpty()) {
-            mustConditions.add(buildMatchQuery("productName", productName));
+            conditions.add(buildMatchQuery("productName", productName));
         }
-        
-        // 构建bool查询
-        Map<String, Object> boolQuery = buildBoolQuery(mustConditions, null, null);
-        
-        // 构建完整的DSL查询
-        Map<String, Object> dslQuery = buildDslQuery(boolQuery, size, "_score", "desc", includeFields, excludeFields);
-        
-        // 执行查询
-        String dslQueryJson = convertToJson(dslQuery);
-        return executeDslQuery(indexName + "/_search", "GET", dslQueryJson);
+        return conditions;
     }
     
     /**
      * 重载原有的searchByText方法，保持向后兼容
      */
-    public Map<String, Object> searchByText(String indexName, String queryText, List<String> fields,
+    public SearchHits searchByText(String indexName, String queryText, List<String> fields,
                                           Long userId, String shopName, String productName, 
                                           int size) throws IOException {
         // 默认排除向量字段
         return searchByText(indexName, queryText, fields, userId, shopName, productName, size,
-                           null, Arrays.asList("question_vector", "answer_vector"));
+                           null, DEFAULT_EXCLUDE_FIELDS, Double.NEGATIVE_INFINITY);
     }
     
     /**
-     * 执行混合搜索（结合全文检索和向量搜索，支持自定义返回字段）
+     * 执行混合搜索（全文检索和向量检索分别执行后在本地融合，支持自定义返回字段）
+     * 
+     * 两路检索各取 size * 倍数 条，全文检索异步发出，与向量检索同时进行；
+     * 融合方式由 elasticsearch.hybrid.fusion 配置：rrf（按排名融合）或 weighted（各路分数归一化后加权求和）。
+     * 权重不大于0的一路不执行；分数阈值分别作用于每一路，返回命中的分数为融合分数。
      * 
      * @param indexName 索引名称
      * @param queryText 查询文本
@@ -782,110 +1052,273 @@ public class ElasticsearchService {
      * @param includeFields 要包含的字段列表（可为null）
      * @param excludeFields 要排除的字段列表（可为null）
      * @param vectorField 向量字段名称，默认为"question_vector"
-     * @return 查询结果
+     * @param minScore 每一路检索的分数阈值，只融合分数大于该值的命中
+     * @return 按融合分数降序排列的命中结果
      * @throws IOException 如果查询失败
      */
-    public Map<String, Object> searchHybrid(String indexName, String queryText, List<String> fields,
+    public SearchHits searchHybrid(String indexName, String queryText, List<String> fields,
                                           float[] vector, float textWeight, float vectorWeight,
                                           Long userId, String shopName, String productName, 
                                           int size, List<String> includeFields, 
-                                          List<String> excludeFields, String vectorField) throws IOException {
-        // 构建必须满足的条件
-        List<Map<String, Object>> mustConditions = new ArrayList<>();
-        
-        // 添加多字段模糊匹配查询
-        Map<String, Object> textQuery = buildMultiMatchQuery(fields, queryText, "best_fields", textWeight);
-        
-        // 如果提供了用户ID，添加用户ID精确匹配
-        if (userId != null) {
-            mustConditions.add(buildTermQuery("userId", userId));
-        }
-        
-        // 如果提供了店铺名称，添加店铺名称精确匹配
-        if (shopName != null && !shopName.trim().isEmpty()) {
-            mustConditions.add(buildTermQuery("shopName", shopName));
+                                          List<String> excludeFields, String vectorField,
+                                          double minScore) throws IOException {
+        // 两路权重都未设置时按相同权重融合
+        if (textWeight <= 0 && vectorWeight <= 0) {
+            textWeight = 1.0f;
+            vectorWeight = 1.0f;
         }
+        int legSize = Math.max(size, size * hybridLegSizeMultiplier);
         
-        // 如果提供了产品名称，添加产品名称模糊匹配（而不是精确匹配）
-        if (productName != null && !productName.trim().isEmpty()) {
-            mustConditions.add(buildMatchQuery("productName", productName));
-        }
-        
-        // 构建bool查询
-        Map<String, Object> boolQuery = buildBoolQuery(mustConditions, null, null);
-        
-        // 构建向量脚本查询
-        Map<String, Object> vectorScriptQuery = buildVectorScriptQuery(boolQuery, vector, vectorField);
-        
-        // 构建should条件，包含文本查询和向量查询
-        List<Map<String, Object>> shouldConditions = new ArrayList<>();
-        shouldConditions.add(textQuery);
-        shouldConditions.add(vectorScriptQuery);
+        // 全文检索异步发出，不占用当前线程
+        CompletableFuture<SearchHits> textLeg = textWeight > 0
+                ? searchAsync(indexName, buildTextDslQuery(queryText, fields, userId, shopName, productName, legSize,
+                        includeFields, excludeFields, minScore), minScore, includeFields)
+                : CompletableFuture.completedFuture(new SearchHits());
         
-        // 构建最终的bool查询
-        Map<String, Object> finalBoolQuery = buildBoolQuery(null, shouldConditions, null);
+        // 向量检索（本地向量索引或ES）
+        SearchHits vectorHits = vectorWeight > 0
+                ? searchByVector(indexName, userId, shopName, productName, vector, legSize, (float) minScore,
+                        includeFields, excludeFields, vectorField)
+                : new SearchHits();
         
-        // 构建完整的DSL查询
-        Map<String, Object> dslQuery = buildDslQuery(finalBoolQuery, size, "_score", "desc", includeFields, excludeFields);
+        SearchHits textHits;
+        try {
+            textHits = textLeg.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("全文检索被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("全文检索失败", cause);
+        }
         
-        // 执行查询
-        String dslQueryJson = convertToJson(dslQuery);
-        return executeDslQuery(indexName + "/_search", "GET", dslQueryJson);
+        return fuse(Arrays.asList(textHits, vectorHits),
+                new double[]{Math.max(0, textWeight), Math.max(0, vectorWeight)}, size);
+    }
+
+    /**
+     * 按配置的融合方式合并多路命中结果
+     */
+    private SearchHits fuse(List<SearchHits> legs, double[] weights, int size) {
+        return "weighted".equalsIgnoreCase(hybridFusion)
+                ? RankFusion.weighted(legs, weights, size)
+                : RankFusion.rrf(legs, weights, hybridRrfK, size);
     }
     
     /**
      * 重载原有的searchHybrid方法，保持向后兼容
      */
-    public Map<String, Object> searchHybrid(String indexName, String queryText, List<String> fields,
+    public SearchHits searchHybrid(String indexName, String queryText, List<String> fields,
                                           float[] vector, float textWeight, float vectorWeight,
                                           Long userId, String shopName, String productName, 
                                           int size, List<String> includeFields, 
                                           List<String> excludeFields) throws IOException {
         // 默认使用question_vector字段
         return searchHybrid(indexName, queryText, fields, vector, textWeight, vectorWeight,
-                           userId, shopName, productName, size, includeFields, excludeFields, "question_vector");
+                           userId, shopName, productName, size, includeFields, excludeFields, "question_vector",
+                           Double.NEGATIVE_INFINITY);
     }
     
     /**
      * 重载原有的searchHybrid方法，保持向后兼容
      */
-    public Map<String, Object> searchHybrid(String indexName, String queryText, List<String> fields,
+    public SearchHits searchHybrid(String indexName, String queryText, List<String> fields,
                                           float[] vector, float textWeight, float vectorWeight,
                                           Long userId, String shopName, String productName, 
                                           int size) throws IOException {
         // 默认排除向量字段，使用question_vector字段
         return searchHybrid(indexName, queryText, fields, vector, textWeight, vectorWeight,
-                           userId, shopName, productName, size, null, Arrays.asList("question_vector", "answer_vector"), "question_vector");
+                           userId, shopName, productName, size, null, DEFAULT_EXCLUDE_FIELDS, "question_vector",
+                           Double.NEGATIVE_INFINITY);
     }
 
     /**
-     * 从查询结果中提取相似度高于阈值的文档
+     * _msearch 中的一个查询
+     */
+    public static final class SearchLeg {
+        private final String indexName;
+        private final Map<String, Object> dslQuery;
+        private final double minScore;
+        private final List<String> fields;
+        private final Map<String, Object> fallbackDslQuery;
+
+        /**
+         * @param indexName 索引名称
+         * @param dslQuery DSL查询
+         * @param minScore 分数阈值，只保留分数大于该值的命中
+         * @param fields 选取的源数据字段，为null时选取除向量字段外的所有字段
+         * @param fallbackDslQuery 执行失败时单独执行的备用查询（可为null）
+         */
+        public SearchLeg(String indexName, Map<String, Object> dslQuery, double minScore, List<String> fields,
+                         Map<String, Object> fallbackDslQuery) {
+            this.indexName = indexName;
+            this.dslQuery = dslQuery;
+            this.minScore = minScore;
+            this.fields = fields;
+            this.fallbackDslQuery = fallbackDslQuery;
+        }
+    }
+
+    /**
+     * 通过一次 _msearch 请求执行多个查询（可以是不同索引）
      * 
-     * @param searchResult 查询结果
-     * @param threshold 相似度阈值
-     * @return 满足条件的文档列表
-     */
-    public List<Map<String, Object>> extractRelevantDocuments(Map<String, Object> searchResult, 
-                                                             double threshold) {
-        List<Map<String, Object>> relevantDocs = new ArrayList<>();
-        
-        if (searchResult.containsKey("body")) {
-            Map<String, Object> body = (Map<String, Object>) searchResult.get("body");
-            if (body.containsKey("hits")) {
-                Map<String, Object> hits = (Map<String, Object>) body.get("hits");
-                List<Map<String, Object>> hitsList = (List<Map<String, Object>>) hits.get("hits");
-                
-                for (Map<String, Object> hit : hitsList) {
-                    double score = (double) hit.get("_score");
-                    if (score > threshold) {
-                        Map<String, Object> source = (Map<String, Object>) hit.get("_source");
-                        relevantDocs.add(source);
-                    }
+     * 每个查询先查询结果缓存，只有未命中的查询发送到ES；执行失败的查询有备用查询时单独执行备用查询，否则抛出异常。
+     * 
+     * @param legs 查询列表
+     * @return 每个查询的命中结果，与legs顺序一致（可能是缓存的共享对象，调用方不要修改）
+     * @throws IOException 如果请求失败或某个查询执行失败
+     */
+    public List<SearchHits> multiSearch(List<SearchLeg> legs) throws IOException {
+        SearchHits[] results = new SearchHits[legs.size()];
+        List<Integer> pending = new ArrayList<>();
+        List<QueryResultCache.Ticket> tickets = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < legs.size(); i++) {
+            SearchLeg leg = legs.get(i);
+            String dslQueryJson = CANONICAL_MAPPER.writeValueAsString(leg.dslQuery);
+            QueryResultCache.Ticket ticket = queryResultCache.open(leg.indexName,
+                    dslQueryJson + "\u0001" + leg.minScore + "\u0001" + leg.fields);
+            SearchHits cached = queryResultCache.get(ticket);
+            if (cached != null) {
+                results[i] = cached;
+                continue;
+            }
+            pending.add(i);
+            tickets.add(ticket);
+            // NDJSON：每个查询一行请求头、一行查询体
+            body.append("{\"index\":").append(CANONICAL_MAPPER.writeValueAsString(leg.indexName)).append("}\n")
+                    .append(dslQueryJson).append('\n');
+        }
+        if (pending.isEmpty()) {
+            return Arrays.asList(results);
+        }
+
+        double[] minScores = new double[pending.size()];
+        List<List<String>> fields = new ArrayList<>();
+        for (int k = 0; k < pending.size(); k++) {
+            SearchLeg leg = legs.get(pending.get(k));
+            minScores[k] = leg.minScore;
+            fields.add(leg.fields);
+        }
+
+        org.elasticsearch.client.Request request = new org.elasticsearch.client.Request("POST", "/_msearch");
+        request.setEntity(new StringEntity(body.toString(), NDJSON));
+        org.elasticsearch.client.Response response = client.getLowLevelClient().performRequest(request);
+        String[] errors = new String[pending.size()];
+        List<SearchHits> parsed;
+        try (java.io.InputStream is = response.getEntity().getContent()) {
+            parsed = SearchResponseParser.parseMulti(is, minScores, fields, errors);
+        }
+        long length = response.getEntity().getContentLength();
+
+        for (int k = 0; k < pending.size(); k++) {
+            SearchLeg leg = legs.get(pending.get(k));
+            SearchHits hits = parsed.get(k);
+            if (hits == null) {
+                if (leg.fallbackDslQuery == null) {
+                    throw new IOException("查询执行失败, 索引: " + leg.indexName + ", 原因: " + errors[k]);
                 }
+                log.warn("查询执行失败，执行备用查询, 索引: {}, 原因: {}", leg.indexName, errors[k]);
+                hits = search(leg.indexName, leg.fallbackDslQuery, leg.minScore, leg.fields);
+            } else {
+                queryResultCache.put(tickets.get(k), hits,
+                        length > 0 ? length / pending.size() : hits.getHits().size() * 1024L);
             }
+            results[pending.get(k)] = hits;
         }
-        
-        return relevantDocs;
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 多路检索：在多个索引上同时执行全文检索和多个向量字段的向量检索，通过一次 _msearch 请求完成，
+     * 结果按文档ID合并（同一文档在多路中出现时融合分数累加，文档ID需在各索引间唯一）
+     * 
+     * 融合方式同 {@link #searchHybrid}；每个向量字段一路，权重均为vectorWeight。
+     * 本地向量索引能提供的向量检索在进程内执行，不发送到ES。
+     * 
+     * @param indexNames 索引名称列表
+     * @param queryText 查询文本（为空时不执行全文检索）
+     * @param fields 全文检索的字段列表
+     * @param vector 查询向量（为null时不执行向量检索）
+     * @param vectorFields 向量字段列表，例如 question_vector、answer_vector
+     * @param textWeight 文本搜索权重（0.0-1.0）
+     * @param vectorWeight 向量搜索权重（0.0-1.0）
+     * @param userId 用户ID（可为null）
+     * @param shopName 店铺名称（可为null）
+     * @param productName 产品名称（可为null）
+     * @param size 返回结果数量
+     * @param includeFields 要包含的字段列表（可为null）
+     * @param excludeFields 要排除的字段列表（可为null）
+     * @param minScore 每一路检索的分数阈值，只融合分数大于该值的命中
+     * @return 按融合分数降序排列的命中结果
+     * @throws IOException 如果查询失败
+     */
+    public SearchHits searchMultiSignal(List<String> indexNames, String queryText, List<String> fields,
+                                        float[] vector, List<String> vectorFields,
+                                        float textWeight, float vectorWeight,
+                                        Long userId, String shopName, String productName,
+                                        int size, List<String> includeFields,
+                                        List<String> excludeFields, double minScore) throws IOException {
+        int legSize = Math.max(size, size * hybridLegSizeMultiplier);
+        boolean withText = textWeight > 0 && queryText != null && !queryText.trim().isEmpty();
+        boolean withVector = vectorWeight > 0 && vector != null && vectorFields != null;
+        Map<String, Object> boolQuery = buildBoolQuery(buildScopeConditions(userId, shopName, productName), null, null);
+        VectorSearchStrategy strategy = vectorSearchStrategyMap.get(vectorSearchStrategyName);
+
+        // 按顺序记录每一路：本地检索结果直接放入，ES查询执行后回填
+        List<SearchHits> legs = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        List<SearchLeg> esLegs = new ArrayList<>();
+        List<Integer> esLegPositions = new ArrayList<>();
+        for (String indexName : indexNames) {
+            boolean normalized = withVector && vectorNormalizationService.isNormalized(indexName);
+            float[] queryVector = normalized ? VectorMath.normalize(vector) : vector;
+            if (withText) {
+                esLegPositions.add(legs.size());
+                esLegs.add(new SearchLeg(indexName, buildTextDslQuery(queryText, fields, userId, shopName, productName,
+                        legSize, includeFields, excludeFields, minScore), minScore, includeFields, null));
+                legs.add(null);
+                weights.add((double) textWeight);
+            }
+            if (!withVector) {
+                continue;
+            }
+            for (String vectorField : vectorFields) {
+                weights.add((double) vectorWeight);
+                if (userId != null && localVectorIndexService.canServe(indexName, vectorField)) {
+                    legs.add(localVectorIndexService.search(userId, shopName, productName, vector, legSize, minScore,
+                            includeFields, excludeFields));
+                    continue;
+                }
+                Map<String, Object> dslQuery = buildDslQuery(
+                        strategy.buildQuery(boolQuery, queryVector, vectorField, legSize, normalized),
+                        legSize, null, null, includeFields, excludeFields);
+                applyMinScore(dslQuery, minScore);
+                // 近似检索失败时（集群版本不支持或字段未建向量索引）退回精确检索
+                Map<String, Object> fallbackQuery = null;
+                if (!ScriptScoreVectorSearchStrategy.NAME.equals(strategy.getName())) {
+                    fallbackQuery = buildDslQuery(buildVectorScriptQuery(boolQuery, queryVector, vectorField, normalized),
+                            legSize, null, null, includeFields, excludeFields);
+                    applyMinScore(fallbackQuery, minScore);
+                }
+                esLegPositions.add(legs.size());
+                esLegs.add(new SearchLeg(indexName, dslQuery, minScore, includeFields, fallbackQuery));
+                legs.add(null);
+            }
+        }
+
+        if (!esLegs.isEmpty()) {
+            List<SearchHits> esResults = multiSearch(esLegs);
+            for (int i = 0; i < esResults.size(); i++) {
+                legs.set(esLegPositions.get(i), esResults.get(i));
+            }
+        }
+
+        double[] weightArray = new double[weights.size()];
+        for (int i = 0; i < weightArray.length; i++) {
+            weightArray[i] = weights.get(i);
+        }
+        return fuse(legs, weightArray, size);
     }
 
     /**
@@ -957,10 +1390,10 @@ public class ElasticsearchService {
      * @param productId 产品ID
      * @param size 返回结果数量
      * @param includeFields 要包含的字段列表
-     * @return 查询结果
+     * @return 命中结果
      * @throws IOException 如果查询失败
      */
-    public Map<String, Object> searchByProductId(String indexName, Long productId, int size, 
+    public SearchHits searchByProductId(String indexName, Long productId, int size, 
                                                List<String> includeFields) throws IOException {
         // 构建必须满足的条件
         List<Map<String, Object>> mustConditions = new ArrayList<>();
@@ -975,7 +1408,6 @@ public class ElasticsearchService {
         Map<String, Object> dslQuery = buildDslQuery(boolQuery, size, null, null, includeFields, null);
         
         // 执行查询
-        String dslQueryJson = convertToJson(dslQuery);
-        return executeDslQuery(indexName + "/_search", "GET", dslQueryJson);
+        return search(indexName, dslQuery, Double.NEGATIVE_INFINITY, includeFields);
     }
 } 
\ No newline at end of file
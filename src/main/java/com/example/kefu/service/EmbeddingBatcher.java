@@ -0,0 +1,191 @@
+package com.example.kefu.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量请求合并器
+ * 将并发到达的单条文本向量请求在一个很短的时间窗口内合并为一次批量请求，
+ * 用于聊天接口等高并发、单条文本的场景
+ */
+@Slf4j
+@Service
+public class EmbeddingBatcher {
+
+    /**
+     * 待处理的单条请求
+     */
+    private static class PendingEmbedding {
+        private final String text;
+        private final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+        PendingEmbedding(String text) {
+            this.text = text;
+        }
+    }
+
+    @Autowired
+    private AliEmbeddingService aliEmbeddingService;
+
+    @Autowired
+    @Qualifier("embeddingBatchExecutor")
+    private ThreadPoolTaskExecutor embeddingBatchExecutor;
+
+    // 合并等待窗口（毫秒）
+    @Value("${aliyun.embedding.coalesce-window-ms:5}")
+    private long windowMillis;
+
+    private final LinkedBlockingQueue<PendingEmbedding> queue = new LinkedBlockingQueue<>();
+
+    private volatile boolean running;
+
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "embedding-coalescer");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        // 关闭前把剩余请求直接发出去，避免调用方一直等待
+        List<PendingEmbedding> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            execute(remaining);
+        }
+    }
+
+    /**
+     * 提交单条文本，返回异步向量结果
+     *
+     * @param text 文本
+     * @return 向量结果
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        // 缓存命中时直接返回，不进入合并窗口
+        float[] cached = aliEmbeddingService.getCachedEmbedding(text);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        PendingEmbedding pending = new PendingEmbedding(text);
+        if (!running) {
+            // 未启动或已关闭时退化为直接调用
+            execute(Collections.singletonList(pending));
+            return pending.future;
+        }
+        queue.offer(pending);
+        return pending.future;
+    }
+
+    /**
+     * 获取单条文本的向量（阻塞等待合并后的批量请求返回）
+     *
+     * @param text 文本
+     * @return 向量
+     */
+    public float[] embed(String text) {
+        try {
+            return submit(text).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("获取向量嵌入被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("获取向量嵌入时发生错误: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 合并循环：取到第一条请求后，在窗口期内继续收集，直到凑满一批或窗口结束
+     */
+    private void dispatchLoop() {
+        int maxBatchSize = aliEmbeddingService.getMaxBatchSize();
+        while (running) {
+            try {
+                PendingEmbedding first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingEmbedding> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingEmbedding next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                embeddingBatchExecutor.execute(() -> execute(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("向量请求合并调度异常", e);
+            }
+        }
+    }
+
+    /**
+     * 执行一批请求，相同文本只请求一次
+     */
+    private void execute(List<PendingEmbedding> batch) {
+        Map<String, List<PendingEmbedding>> byText = new LinkedHashMap<>();
+        for (PendingEmbedding pending : batch) {
+            byText.computeIfAbsent(pending.text, k -> new ArrayList<>()).add(pending);
+        }
+        List<String> texts = new ArrayList<>(byText.keySet());
+
+        try {
+            List<float[]> vectors = aliEmbeddingService.getEmbeddings(texts);
+            for (int i = 0; i < texts.size(); i++) {
+                float[] vector = vectors.get(i);
+                List<PendingEmbedding> waiters = byText.get(texts.get(i));
+                for (int j = 0; j < waiters.size(); j++) {
+                    // 相同文本的调用方各自持有一份副本，避免互相修改
+                    waiters.get(j).future.complete(j == 0 ? vector : vector.clone());
+                }
+            }
+        } catch (Exception e) {
+            log.error("批量获取向量嵌入失败, 批大小: {}", texts.size(), e);
+            for (PendingEmbedding pending : batch) {
+                pending.future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            }
+        }
+    }
+}
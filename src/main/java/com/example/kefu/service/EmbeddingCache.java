@@ -0,0 +1,230 @@
+package com.example.kefu.service;
+
+import com.example.kefu.util.MappedEmbeddingStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向量嵌入缓存
+ *
+ * 以 (模型, 维度, 归一化后的文本) 的哈希为key，分两级缓存：
+ * 一级为堆内LRU缓存，二级为内存映射文件，重启后依然有效。
+ */
+@Slf4j
+@Service
+public class EmbeddingCache {
+
+    /**
+     * 缓存key，取SHA-256的前128位
+     */
+    private static final class CacheKey {
+        private final long hi;
+        private final long lo;
+
+        CacheKey(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hi == other.hi && lo == other.lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hi ^ (hi >>> 32) ^ lo ^ (lo >>> 32));
+        }
+    }
+
+    @Value("${aliyun.embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${aliyun.embedding.cache.memory-max-entries:10000}")
+    private int memoryMaxEntries;
+
+    @Value("${aliyun.embedding.cache.disk-enabled:true}")
+    private boolean diskEnabled;
+
+    @Value("${aliyun.embedding.cache.disk-path:./embedding-cache/embeddings.dat}")
+    private String diskPath;
+
+    @Value("${aliyun.embedding.cache.disk-slots:32768}")
+    private int diskSlots;
+
+    @Value("${aliyun.embedding.cache.disk-dims:512}")
+    private int diskDims;
+
+    private Map<CacheKey, float[]> memoryCache;
+
+    private MappedEmbeddingStore diskStore;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        final int maxEntries = Math.max(1, memoryMaxEntries);
+        memoryCache = new LinkedHashMap<CacheKey, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, float[]> eldest) {
+                if (size() > maxEntries) {
+                    memoryEvictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        if (enabled && diskEnabled) {
+            try {
+                diskStore = new MappedEmbeddingStore(diskPath, diskSlots, diskDims);
+            } catch (Exception e) {
+                // 磁盘缓存不可用时只使用内存缓存
+                log.error("打开向量磁盘缓存失败: {}", diskPath, e);
+                diskStore = null;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (diskStore != null) {
+            try {
+                diskStore.close();
+            } catch (Exception e) {
+                log.error("关闭向量磁盘缓存失败", e);
+            }
+        }
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param model 模型名称
+     * @param dimensions 向量维度
+     * @param text 文本
+     * @return 向量副本，未命中返回null
+     */
+    public float[] get(String model, Integer dimensions, String text) {
+        if (!enabled || text == null) {
+            return null;
+        }
+        CacheKey key = keyOf(model, dimensions, text);
+
+        float[] vector;
+        synchronized (memoryCache) {
+            vector = memoryCache.get(key);
+        }
+        if (vector != null) {
+            memoryHits.incrementAndGet();
+            return vector.clone();
+        }
+
+        if (diskStore != null) {
+            vector = diskStore.get(key.hi, key.lo);
+            if (vector != null) {
+                diskHits.incrementAndGet();
+                synchronized (memoryCache) {
+                    memoryCache.put(key, vector);
+                }
+                return vector.clone();
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param model 模型名称
+     * @param dimensions 向量维度
+     * @param text 文本
+     * @param vector 向量
+     */
+    public void put(String model, Integer dimensions, String text, float[] vector) {
+        if (!enabled || text == null || vector == null) {
+            return;
+        }
+        CacheKey key = keyOf(model, dimensions, text);
+        float[] copy = vector.clone();
+        synchronized (memoryCache) {
+            memoryCache.put(key, copy);
+        }
+        if (diskStore != null && diskStore.put(key.hi, key.lo, copy)) {
+            diskEvictions.incrementAndGet();
+        }
+        puts.incrementAndGet();
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        stats.put("enabled", enabled);
+        synchronized (memoryCache) {
+            stats.put("memoryEntries", memoryCache.size());
+        }
+        stats.put("memoryMaxEntries", memoryMaxEntries);
+        stats.put("diskEnabled", diskStore != null);
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("puts", puts.get());
+        stats.put("memoryEvictions", memoryEvictions.get());
+        stats.put("diskEvictions", diskEvictions.get());
+        return stats;
+    }
+
+    /**
+     * 文本归一化：Unicode兼容归一化（全角转半角）、去除首尾空白、合并连续空白、转小写
+     */
+    private static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).trim();
+        return normalized.replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    private CacheKey keyOf(String model, Integer dimensions, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(model).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(dimensions).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalize(text).getBytes(StandardCharsets.UTF_8));
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+            return new CacheKey(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.response.SearchHits;
+import com.example.kefu.util.HnswIndex;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内QA向量索引
+ *
+ * 按userId为qa_vectors中的question_vector各建一个HNSW索引，在本地完成向量检索，省去ES的网络往返。
+ * ES仍是数据源：启动时从快照恢复后再从ES补齐增量（数量对不上时全量重建），
+ * 之后通过 {@link #onDocumentIndexed} 跟随写入同步；索引被删除或被无法确定范围的写操作修改时通过 {@link #reset} 全量重建。
+ */
+@Slf4j
+@Service
+public class LocalVectorIndexService {
+
+    public static final String INDEX_NAME = "qa_vectors";
+
+    public static final String VECTOR_FIELD = "question_vector";
+
+    /**
+     * 本地保存的文档字段（不含向量和时间）
+     */
+    private static final List<String> SOURCE_FIELDS = Arrays.asList(
+            "userId", "shopId", "shopName", "productId", "productName", "documentId", "question", "answer");
+
+    /**
+     * 快照元数据
+     */
+    static class SnapshotMeta {
+        public String snapshotTime;
+        public List<String> ids;
+        public List<Map<String, Object>> sources;
+    }
+
+    /**
+     * 单个用户的索引
+     */
+    private class TenantIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private HnswIndex index;
+        private final List<String> ids = new ArrayList<>();
+        private final List<Map<String, Object>> sources = new ArrayList<>();
+        private final Map<String, Integer> nodeById = new HashMap<>();
+        private volatile boolean dirty;
+
+        void add(String id, float[] vector, Map<String, Object> source) {
+            lock.writeLock().lock();
+            try {
+                if (index == null) {
+                    index = new HnswIndex(vector.length, m, efConstruction);
+                }
+                Integer old = nodeById.get(id);
+                if (old != null) {
+                    index.delete(old);
+                }
+                int node = index.add(vector);
+                ids.add(id);
+                sources.add(source);
+                nodeById.put(id, node);
+                dirty = true;
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(String id) {
+            lock.writeLock().lock();
+            try {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    index.delete(node);
+                    dirty = true;
+                    compactIfNeeded();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * 标记删除的节点占比超过阈值时，只用有效节点重建索引，回收向量、文档和图的空间（调用方需持有写锁）
+         */
+        void compactIfNeeded() {
+            if (index == null || index.size() == 0
+                    || index.size() - index.liveSize() <= index.size() * compactDeletedRatio) {
+                return;
+            }
+            HnswIndex oldIndex = index;
+            List<String> oldIds = new ArrayList<>(ids);
+            List<Map<String, Object>> oldSources = new ArrayList<>(sources);
+            index = new HnswIndex(oldIndex.getDims(), m, efConstruction);
+            ids.clear();
+            sources.clear();
+            nodeById.clear();
+            for (int node = 0; node < oldIndex.size(); node++) {
+                if (oldIndex.isDeleted(node)) {
+                    continue;
+                }
+                int newNode = index.add(oldIndex.getVector(node));
+                ids.add(oldIds.get(node));
+                sources.add(oldSources.get(node));
+                nodeById.put(oldIds.get(node), newNode);
+            }
+            dirty = true;
+            log.info("本地向量索引已压缩, 节点数: {} -> {}", oldIndex.size(), index.size());
+        }
+
+        int liveSize() {
+            lock.readLock().lock();
+            try {
+                return nodeById.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${vector.local-index.enabled:false}")
+    private boolean enabled;
+
+    @Value("${vector.local-index.m:16}")
+    private int m;
+
+    @Value("${vector.local-index.ef-construction:100}")
+    private int efConstruction;
+
+    @Value("${vector.local-index.ef-search:64}")
+    private int efSearch;
+
+    /**
+     * 标记删除的节点占比超过该值时重建用户索引（文档每次重新写入都会留下一个删除标记）
+     */
+    @Value("${vector.local-index.compact-deleted-ratio:0.2}")
+    private double compactDeletedRatio;
+
+    @Value("${vector.local-index.snapshot-enabled:true}")
+    private boolean snapshotEnabled;
+
+    @Value("${vector.local-index.snapshot-dir:./vector-index}")
+    private String snapshotDir;
+
+    private final Map<Long, TenantIndex> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * 写快照与重置互斥，避免重置后又写入已删除的数据
+     */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * 预热完成前所有查询仍走ES
+     */
+    private volatile boolean ready;
+
+    /**
+     * 每次重置加1，旧的同步任务完成后不再把索引标记为可用
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * 启动后在后台线程预热，不阻塞应用启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        startSync(generation.get(), true);
+    }
+
+    /**
+     * 索引被删除或被无法确定范围的写操作修改后调用：丢弃本地索引和快照，
+     * 查询回到ES，后台从ES全量重建完成后再恢复本地检索
+     */
+    public void reset() {
+        if (!enabled) {
+            return;
+        }
+        long current;
+        synchronized (snapshotLock) {
+            current = generation.incrementAndGet();
+            ready = false;
+            tenants.clear();
+            deleteSnapshots();
+        }
+        log.info("本地向量索引已重置，从ES重新加载");
+        startSync(current, false);
+    }
+
+    /**
+     * 在后台线程中从快照和ES加载索引
+     *
+     * @param expectedGeneration 启动时的重置次数，期间又被重置时不标记为可用
+     * @param useSnapshots 是否先从快照恢复
+     */
+    private void startSync(long expectedGeneration, boolean useSnapshots) {
+        Thread thread = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                LocalDateTime since = useSnapshots ? loadSnapshots() : null;
+                syncFromElasticsearch(since, expectedGeneration);
+                if (generation.get() == expectedGeneration) {
+                    ready = true;
+                    log.info("本地向量索引预热完成, 用户数: {}, 耗时: {}ms", tenants.size(),
+                            System.currentTimeMillis() - start);
+                }
+            } catch (Exception e) {
+                log.error("本地向量索引预热失败，向量检索继续使用ES", e);
+            }
+        }, "local-vector-index-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 是否可以在本地完成检索
+     */
+    public boolean canServe(String indexName, String vectorField) {
+        return enabled && ready && INDEX_NAME.equals(indexName) && VECTOR_FIELD.equals(vectorField);
+    }
+
+    /**
+     * 文档写入ES后同步到本地索引
+     *
+     * @param id ES文档ID
+     * @param document 文档内容
+     */
+    public void onDocumentIndexed(String id, Map<String, Object> document) {
+        if (!enabled) {
+            return;
+        }
+        Object userId = document.get("userId");
+        float[] vector = toVector(document.get(VECTOR_FIELD));
+        if (!(userId instanceof Number) || vector == null) {
+            return;
+        }
+        tenants.computeIfAbsent(((Number) userId).longValue(), k -> new TenantIndex())
+                .add(id, vector, extractSource(document));
+    }
+
+    /**
+     * 文档从ES删除后同步到本地索引
+     */
+    public void onDocumentDeleted(Long userId, String id) {
+        if (!enabled || userId == null) {
+            return;
+        }
+        TenantIndex tenant = tenants.get(userId);
+        if (tenant != null) {
+            tenant.remove(id);
+        }
+    }
+
+    /**
+     * 本地向量检索，分数与 cosineSimilarity + 1.0 保持一致
+     *
+     * @param userId 用户ID
+     * @param shopName 店铺名称（可为null）
+     * @param productName 产品名称（可为null）
+     * @param vector 查询向量
+     * @param size 返回结果数量
+     * @param minScore 分数阈值，只返回分数大于该值的命中
+     * @param includeFields 要包含的字段列表（可为null）
+     * @param excludeFields 要排除的字段列表（可为null）
+     * @return 命中结果
+     */
+    public SearchHits search(Long userId, String shopName, String productName, float[] vector, int size,
+                             double minScore, List<String> includeFields, List<String> excludeFields) {
+        SearchHits hits = new SearchHits();
+        TenantIndex tenant = tenants.get(userId);
+        if (tenant != null) {
+            tenant.lock.readLock().lock();
+            try {
+                if (tenant.index != null && tenant.index.getDims() == vector.length) {
+                    // shopName、productName在ES中均为keyword字段，本地按精确匹配过滤
+                    IntPredicate filter = null;
+                    boolean hasShop = shopName != null && !shopName.trim().isEmpty();
+                    boolean hasProduct = productName != null && !productName.trim().isEmpty();
+                    if (hasShop || hasProduct) {
+                        filter = node -> {
+                            Map<String, Object> source = tenant.sources.get(node);
+                            return (!hasShop || shopName.equals(source.get("shopName")))
+                                    && (!hasProduct || productName.equals(source.get("productName")));
+                        };
+                    }
+
+                    List<HnswIndex.Hit> result = tenant.index.search(vector, size, Math.max(efSearch, size), filter);
+                    if (filter != null && result.size() < size) {
+                        // 过滤后召回不足时对该用户做精确检索，单个用户的数据量不大
+                        result = tenant.index.exactSearch(vector, size, filter);
+                    }
+
+                    hits.setTotal(result.size());
+                    for (HnswIndex.Hit hit : result) {
+                        double score = (double) hit.getScore() + 1.0;
+                        if (hits.getMaxScore() == null) {
+                            hits.setMaxScore(score);
+                        }
+                        if (score > minScore) {
+                            hits.getHits().add(new SearchHits.Hit(tenant.ids.get(hit.getNode()), score,
+                                    filterSource(tenant.sources.get(hit.getNode()), includeFields, excludeFields)));
+                        }
+                    }
+                }
+            } finally {
+                tenant.lock.readLock().unlock();
+            }
+        }
+
+        return hits;
+    }
+
+    /**
+     * 定时把有变更的用户索引写入快照
+     */
+    @Scheduled(fixedDelayString = "${vector.local-index.snapshot-interval-ms:600000}")
+    public void scheduledSnapshot() {
+        if (enabled && ready && snapshotEnabled) {
+            saveSnapshots();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled && ready && snapshotEnabled) {
+            saveSnapshots();
+        }
+    }
+
+    /**
+     * 获取本地索引统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("tenants", tenants.size());
+        long documents = 0;
+        for (TenantIndex tenant : tenants.values()) {
+            documents += tenant.liveSize();
+        }
+        stats.put("documents", documents);
+        return stats;
+    }
+
+    /**
+     * 从快照目录加载所有用户的索引
+     *
+     * @return 最早的快照时间，没有快照时返回null
+     */
+    private LocalDateTime loadSnapshots() {
+        if (!snapshotEnabled) {
+            return null;
+        }
+        File dir = new File(snapshotDir);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".hnsw"));
+        if (files == null || files.length == 0) {
+            return null;
+        }
+
+        LocalDateTime earliest = null;
+        for (File file : files) {
+            String name = file.getName();
+            File metaFile = new File(dir, name.substring(0, name.length() - ".hnsw".length()) + ".meta.json");
+            try {
+                Long userId = Long.valueOf(name.substring(0, name.length() - ".hnsw".length()));
+                SnapshotMeta meta = objectMapper.readValue(metaFile, new TypeReference<SnapshotMeta>() {});
+                HnswIndex index = HnswIndex.load(file, efConstruction);
+                if (meta.ids.size() != index.size()) {
+                    log.warn("本地向量索引快照不完整，忽略: {}", file.getAbsolutePath());
+                    continue;
+                }
+
+                TenantIndex tenant = new TenantIndex();
+                tenant.index = index;
+                for (int node = 0; node < meta.ids.size(); node++) {
+                    tenant.ids.add(meta.ids.get(node));
+                    tenant.sources.add(meta.sources.get(node));
+                    if (!index.isDeleted(node)) {
+                        tenant.nodeById.put(meta.ids.get(node), node);
+                    }
+                }
+                tenant.compactIfNeeded();
+                tenants.put(userId, tenant);
+
+                LocalDateTime snapshotTime = LocalDateTime.parse(meta.snapshotTime);
+                if (earliest == null || snapshotTime.isBefore(earliest)) {
+                    earliest = snapshotTime;
+                }
+            } catch (Exception e) {
+                log.warn("加载本地向量索引快照失败: {}", file.getAbsolutePath(), e);
+            }
+        }
+        log.info("已从快照加载本地向量索引, 用户数: {}", tenants.size());
+        return earliest;
+    }
+
+    /**
+     * 从ES同步：有快照时只拉取快照之后更新的文档，数量对不上时全量重建
+     */
+    private void syncFromElasticsearch(LocalDateTime since, long expectedGeneration) throws IOException {
+        if (!client.indices().exists(new GetIndexRequest(INDEX_NAME), RequestOptions.DEFAULT)) {
+            log.info("索引 {} 不存在，本地向量索引为空", INDEX_NAME);
+            return;
+        }
+
+        if (since != null) {
+            // 预留时间余量，避免快照前后写入的文档被漏掉
+            scroll(QueryBuilders.rangeQuery("updateTime").gte(since.minusMinutes(5).toString()), expectedGeneration);
+            long remote = client.count(new CountRequest(INDEX_NAME), RequestOptions.DEFAULT).getCount();
+            long local = 0;
+            for (TenantIndex tenant : tenants.values()) {
+                local += tenant.liveSize();
+            }
+            if (remote == local) {
+                return;
+            }
+            log.info("本地向量索引与ES数量不一致(本地: {}, ES: {})，全量重建", local, remote);
+            tenants.clear();
+        }
+        scroll(QueryBuilders.matchAllQuery(), expectedGeneration);
+    }
+
+    /**
+     * 分批加载ES中的文档，期间索引被重置时停止，避免把重置前读到的数据加回本地索引
+     */
+    private void scroll(QueryBuilder query, long expectedGeneration) throws IOException {
+        List<String> fetchFields = new ArrayList<>(SOURCE_FIELDS);
+        fetchFields.add(VECTOR_FIELD);
+
+        SearchRequest request = new SearchRequest(INDEX_NAME);
+        request.scroll(TimeValue.timeValueMinutes(1));
+        request.source(new SearchSourceBuilder()
+                .query(query)
+                .size(500)
+                .fetchSource(fetchFields.toArray(new String[0]), null));
+
+        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+        String scrollId = response.getScrollId();
+        long loaded = 0;
+        try {
+            while (response.getHits().getHits().length > 0 && generation.get() == expectedGeneration) {
+                for (SearchHit hit : response.getHits().getHits()) {
+                    onDocumentIndexed(hit.getId(), hit.getSourceAsMap());
+                    loaded++;
+                }
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(TimeValue.timeValueMinutes(1));
+                response = client.scroll(scrollRequest, RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        }
+        log.info("从ES加载QA向量 {} 条", loaded);
+    }
+
+    private void saveSnapshots() {
+        synchronized (snapshotLock) {
+            if (ready) {
+                writeSnapshots();
+            }
+        }
+    }
+
+    private void deleteSnapshots() {
+        File[] files = new File(snapshotDir).listFiles((d, name) -> name.endsWith(".hnsw") || name.endsWith(".meta.json"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                log.warn("删除本地向量索引快照失败: {}", file.getAbsolutePath());
+            }
+        }
+    }
+
+    private void writeSnapshots() {
+        String snapshotTime = LocalDateTime.now().toString();
+        for (Map.Entry<Long, TenantIndex> entry : tenants.entrySet()) {
+            TenantIndex tenant = entry.getValue();
+            if (!tenant.dirty) {
+                continue;
+            }
+            // 写快照期间只阻塞该用户的写入，不阻塞查询
+            tenant.lock.readLock().lock();
+            try {
+                if (tenant.index == null) {
+                    continue;
+                }
+                SnapshotMeta meta = new SnapshotMeta();
+                meta.snapshotTime = snapshotTime;
+                meta.ids = tenant.ids;
+                meta.sources = tenant.sources;
+
+                File dir = new File(snapshotDir);
+                tenant.index.save(new File(dir, entry.getKey() + ".hnsw"));
+                objectMapper.writeValue(new File(dir, entry.getKey() + ".meta.json"), meta);
+                tenant.dirty = false;
+            } catch (Exception e) {
+                log.error("写入本地向量索引快照失败, userId: {}", entry.getKey(), e);
+            } finally {
+                tenant.lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static Map<String, Object> extractSource(Map<String, Object> document) {
+        Map<String, Object> source = new HashMap<>();
+        for (String field : SOURCE_FIELDS) {
+            Object value = document.get(field);
+            if (value != null) {
+                source.put(field, value);
+            }
+        }
+        return source;
+    }
+
+    private static Map<String, Object> filterSource(Map<String, Object> source, List<String> includeFields,
+                                                    List<String> excludeFields) {
+        Map<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (includeFields != null && !includeFields.isEmpty() && !includeFields.contains(entry.getKey())) {
+                continue;
+            }
+            if (excludeFields != null && excludeFields.contains(entry.getKey())) {
+                continue;
+            }
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 向量字段可能是float[]（本地写入）或数字列表（从ES读取）
+     */
+    private static float[] toVector(Object value) {
+        if (value instanceof float[]) {
+            return (float[]) value;
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            float[] vector = new float[list.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) list.get(i)).floatValue();
+            }
+            return vector;
+        }
+        return null;
+    }
+}
@@ -9,13 +9,13 @@ import com.example.kefu.model.log.ErrorLogRecord;
 public interface LogService {
     
     /**
-     * 保存API日志
+     * 保存API日志（异步批量写入，不阻塞调用线程）
      * @param apiLogRecord API日志记录
      */
     void saveApiLog(ApiLogRecord apiLogRecord);
     
     /**
-     * 保存错误日志
+     * 保存错误日志（异步批量写入，不阻塞调用线程）
      * @param errorLogRecord 错误日志记录
      */
     void saveErrorLog(ErrorLogRecord errorLogRecord);
@@ -0,0 +1,281 @@
+package com.example.kefu.service;
+
+import com.example.kefu.util.LogRingBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 日志异步批量写入
+ *
+ * 请求线程只把日志放入环形缓冲区，由后台线程按条数或时间间隔通过 _bulk 批量写入ES。
+ * 缓冲区满或批量写入失败时按 logging.shipper.overflow 处理：
+ * drop（丢弃并计数）或 spill（追加到本地文件，文件为 _bulk 格式，可直接重新导入）。
+ * 应用关闭时写完缓冲区中剩余的日志。
+ */
+@Slf4j
+@Service
+public class LogShipper {
+
+    private static final String OVERFLOW_SPILL = "spill";
+
+    /**
+     * 缓冲区中的一条日志
+     */
+    private static class LogEntry {
+        private final String index;
+        private final Map<String, Object> source;
+
+        LogEntry(String index, Map<String, Object> source) {
+            this.index = index;
+            this.source = source;
+        }
+    }
+
+    @Autowired
+    private RestHighLevelClient elasticsearchClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${logging.shipper.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${logging.shipper.batch-size:500}")
+    private int batchSize;
+
+    @Value("${logging.shipper.flush-interval-ms:1000}")
+    private long flushIntervalMillis;
+
+    @Value("${logging.shipper.overflow:drop}")
+    private String overflow;
+
+    @Value("${logging.shipper.spill-dir:./log-spill}")
+    private String spillDir;
+
+    private LogRingBuffer<LogEntry> buffer;
+
+    private Thread writerThread;
+
+    private volatile boolean running;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong shipped = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failedBulks = new AtomicLong();
+
+    private long lastReportedDropped;
+
+    private Writer spillWriter;
+    private String spillFileDate;
+
+    @PostConstruct
+    public void start() {
+        buffer = new LogRingBuffer<>(bufferSize);
+        running = true;
+        writerThread = new Thread(this::runWriter, "log-shipper");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("日志异步写入已启动, 缓冲区: {}, 批量: {}, 间隔: {}ms, 溢出策略: {}",
+                buffer.capacity(), batchSize, flushIntervalMillis, overflow);
+    }
+
+    /**
+     * 提交一条日志，不阻塞调用线程
+     *
+     * @param index  索引名称
+     * @param source 文档内容
+     */
+    public void submit(String index, Map<String, Object> source) {
+        LogEntry entry = new LogEntry(index, source);
+        if (running && buffer.offer(entry)) {
+            enqueued.incrementAndGet();
+            return;
+        }
+        overflow(Collections.singletonList(entry));
+    }
+
+    private void runWriter() {
+        List<LogEntry> batch = new ArrayList<>(batchSize);
+        long lastFlush = System.currentTimeMillis();
+        while (running) {
+            buffer.drainTo(batch, batchSize - batch.size());
+            long now = System.currentTimeMillis();
+            if (batch.size() >= batchSize || (!batch.isEmpty() && now - lastFlush >= flushIntervalMillis)) {
+                ship(batch);
+                batch.clear();
+                lastFlush = now;
+                continue;
+            }
+            if (batch.isEmpty()) {
+                lastFlush = now;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(50, flushIntervalMillis)));
+            reportDropped();
+        }
+        // 退出前写完剩余日志
+        buffer.drainTo(batch, Integer.MAX_VALUE);
+        while (!batch.isEmpty()) {
+            List<LogEntry> chunk = batch.subList(0, Math.min(batchSize, batch.size()));
+            ship(new ArrayList<>(chunk));
+            chunk.clear();
+        }
+    }
+
+    /**
+     * 批量写入ES，失败的日志按溢出策略处理
+     */
+    private void ship(List<LogEntry> batch) {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (LogEntry entry : batch) {
+            bulkRequest.add(new IndexRequest(entry.index).source(entry.source));
+        }
+        try {
+            BulkResponse response = elasticsearchClient.bulk(bulkRequest, RequestOptions.DEFAULT);
+            if (!response.hasFailures()) {
+                shipped.addAndGet(batch.size());
+                return;
+            }
+            List<LogEntry> failed = new ArrayList<>();
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].isFailed()) {
+                    failed.add(batch.get(i));
+                }
+            }
+            shipped.addAndGet(batch.size() - failed.size());
+            log.warn("批量写入日志部分失败, 失败: {}/{}, 原因: {}", failed.size(), batch.size(),
+                    response.buildFailureMessage());
+            overflow(failed);
+        } catch (Exception e) {
+            failedBulks.incrementAndGet();
+            log.error("批量写入日志失败, 数量: {}", batch.size(), e);
+            overflow(batch);
+        }
+    }
+
+    /**
+     * 缓冲区满或写入失败的日志：丢弃计数或写入本地文件
+     */
+    private void overflow(List<LogEntry> entries) {
+        if (OVERFLOW_SPILL.equalsIgnoreCase(overflow) && spill(entries)) {
+            return;
+        }
+        dropped.addAndGet(entries.size());
+    }
+
+    private synchronized boolean spill(List<LogEntry> entries) {
+        try {
+            Writer writer = getSpillWriter();
+            for (LogEntry entry : entries) {
+                Map<String, Object> action = new HashMap<>();
+                action.put("index", Collections.singletonMap("_index", entry.index));
+                writer.write(objectMapper.writeValueAsString(action));
+                writer.write('\n');
+                writer.write(objectMapper.writeValueAsString(entry.source));
+                writer.write('\n');
+            }
+            writer.flush();
+            spilled.addAndGet(entries.size());
+            return true;
+        } catch (IOException e) {
+            log.error("日志写入本地文件失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 按天滚动的溢出文件
+     */
+    private Writer getSpillWriter() throws IOException {
+        String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
+        if (spillWriter == null || !date.equals(spillFileDate)) {
+            closeSpillWriter();
+            File dir = new File(spillDir);
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("创建日志溢出目录失败: " + dir.getAbsolutePath());
+            }
+            File file = new File(dir, "log-" + date + ".ndjson");
+            spillWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), StandardCharsets.UTF_8));
+            spillFileDate = date;
+        }
+        return spillWriter;
+    }
+
+    private synchronized void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                log.warn("关闭日志溢出文件失败", e);
+            }
+            spillWriter = null;
+        }
+    }
+
+    private void reportDropped() {
+        long current = dropped.get();
+        if (current != lastReportedDropped) {
+            log.warn("日志缓冲区已满或写入失败, 累计丢弃: {}", current);
+            lastReportedDropped = current;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeSpillWriter();
+        log.info("日志异步写入已停止, {}", getStats());
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("buffered", buffer.size());
+        stats.put("capacity", buffer.capacity());
+        stats.put("enqueued", enqueued.get());
+        stats.put("shipped", shipped.get());
+        stats.put("dropped", dropped.get());
+        stats.put("spilled", spilled.get());
+        stats.put("failedBulks", failedBulks.get());
+        return stats;
+    }
+}
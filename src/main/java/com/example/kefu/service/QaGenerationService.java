@@ -0,0 +1,304 @@
+package com.example.kefu.service;
+
+import com.example.kefu.util.QaFingerprint;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * 问答生成引擎
+ *
+ * 产品属性按类别（基本信息、规格参数、使用场景、清洗保养、售后物流等）分组，
+ * 每组再按字符预算切分成块，各块带上产品名称等公共信息并行调用大模型生成问答，
+ * 并发数由问答生成线程池大小控制。每块完成后立即解析，按归一化后的问题去重，
+ * 新的问答对马上交给回调（如向量化和写入索引），不必等待全部块完成。
+ * 属性总长度不超过一块预算时只调用一次大模型，与原先行为一致。
+ */
+@Slf4j
+@Service
+public class QaGenerationService {
+
+    /**
+     * 公共信息属性关键字，会附加到每个块中
+     */
+    private static final List<String> CONTEXT_KEYWORDS = Arrays.asList("名称", "品名", "产品", "商品", "品牌", "型号");
+
+    /**
+     * 属性分组关键字，按顺序匹配，未匹配的属性归入"其他"
+     */
+    private static final LinkedHashMap<String, List<String>> GROUP_KEYWORDS = new LinkedHashMap<>();
+
+    static {
+        GROUP_KEYWORDS.put("基本信息", Arrays.asList("名称", "品名", "产品", "商品", "品牌", "型号", "价格", "售价", "产地", "货号"));
+        GROUP_KEYWORDS.put("规格参数", Arrays.asList("尺寸", "尺码", "规格", "重量", "容量", "颜色", "材质", "面料", "成分", "参数", "功率", "电压"));
+        GROUP_KEYWORDS.put("使用场景", Arrays.asList("使用", "场景", "适用", "功能", "特点", "卖点", "优势", "人群"));
+        GROUP_KEYWORDS.put("清洗保养", Arrays.asList("清洗", "洗涤", "保养", "维护", "储存", "存放", "注意"));
+        GROUP_KEYWORDS.put("售后物流", Arrays.asList("售后", "保修", "质保", "退", "换", "发货", "物流", "快递", "运费", "包装", "赠品"));
+    }
+
+    private static final String OTHER_GROUP = "其他";
+
+    /**
+     * 问答对中记录所属属性块指纹的字段
+     */
+    public static final String CHUNK_FINGERPRINT = "chunkFingerprint";
+
+    @Autowired
+    private QwenService qwenService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("qaGenerationExecutor")
+    private ThreadPoolTaskExecutor qaGenerationExecutor;
+
+    /**
+     * 每块属性文本的最大字符数
+     */
+    @Value("${qa.generation.chunk-max-chars:1500}")
+    private int chunkMaxChars;
+
+    /**
+     * 每块最多调用大模型的次数（含首次）
+     */
+    @Value("${qa.generation.max-attempts:2}")
+    private int maxAttempts;
+
+    /**
+     * 生成问答对
+     *
+     * @param productInfo 产品信息（属性名 -> 属性值）
+     * @param onPairs     每块完成后回调去重后的新问答对，参数为这些问答对在最终结果中的起始位置和问答对列表；
+     *                    回调在生成线程中执行，可以为null
+     * @return 去重后的全部问答对，顺序与回调顺序一致
+     */
+    public List<Map<String, String>> generate(Map<String, String> productInfo,
+                                              BiConsumer<Integer, List<Map<String, String>>> onPairs) {
+        return generateChunks(splitIntoChunks(productInfo), onPairs);
+    }
+
+    /**
+     * 为已切分好的属性块生成问答对，每个问答对带上所属属性块的指纹（chunkFingerprint）
+     *
+     * @param chunks  属性块列表（见 {@link #splitIntoChunks}）
+     * @param onPairs 同 {@link #generate}
+     * @return 去重后的全部问答对，顺序与回调顺序一致
+     */
+    public List<Map<String, String>> generateChunks(List<Map<String, String>> chunks,
+                                                    BiConsumer<Integer, List<Map<String, String>>> onPairs) {
+        log.info("生成问答, 分块数量: {}", chunks.size());
+
+        Set<String> seenQuestions = ConcurrentHashMap.newKeySet();
+        List<Map<String, String>> results = new ArrayList<>();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(chunks.size());
+        for (Map<String, String> chunk : chunks) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                String chunkFingerprint = QaFingerprint.ofAttributes(chunk);
+                List<Map<String, String>> fresh = new ArrayList<>();
+                for (Map<String, String> qa : generateChunk(chunk)) {
+                    String question = qa.get("question");
+                    if (question == null || qa.get("answer") == null) {
+                        continue;
+                    }
+                    if (seenQuestions.add(normalizeQuestion(question))) {
+                        Map<String, String> pair = new LinkedHashMap<>(qa);
+                        pair.put(CHUNK_FINGERPRINT, chunkFingerprint);
+                        fresh.add(pair);
+                    }
+                }
+                if (fresh.isEmpty()) {
+                    return;
+                }
+                int offset;
+                synchronized (results) {
+                    offset = results.size();
+                    results.addAll(fresh);
+                }
+                if (onPairs != null) {
+                    onPairs.accept(offset, fresh);
+                }
+            }, qaGenerationExecutor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("生成问答失败: " + cause.getMessage(), cause);
+        }
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * 为一块属性生成问答，解析失败时重试
+     */
+    private List<Map<String, String>> generateChunk(Map<String, String> chunk) {
+        RuntimeException last = null;
+        for (int attempt = 1; attempt <= Math.max(1, maxAttempts); attempt++) {
+            try {
+                return parseQAFromChatResult(qwenService.getQAList(chunk));
+            } catch (RuntimeException e) {
+                last = e;
+                log.warn("生成问答失败, 第{}次, 属性: {}", attempt, chunk.keySet(), e);
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * 按类别分组并按字符预算切块，每块都带上公共信息属性
+     *
+     * @param productInfo 产品信息（属性名 -> 属性值）
+     * @return 属性块列表，相同的属性得到相同的切分结果
+     */
+    public List<Map<String, String>> splitIntoChunks(Map<String, String> productInfo) {
+        int totalChars = 0;
+        for (Map.Entry<String, String> entry : productInfo.entrySet()) {
+            totalChars += entryChars(entry);
+        }
+        if (totalChars <= chunkMaxChars) {
+            return Collections.singletonList(productInfo);
+        }
+
+        Map<String, String> context = new LinkedHashMap<>();
+        Map<String, Map<String, String>> groups = new LinkedHashMap<>();
+        for (String group : GROUP_KEYWORDS.keySet()) {
+            groups.put(group, new LinkedHashMap<>());
+        }
+        groups.put(OTHER_GROUP, new LinkedHashMap<>());
+
+        for (Map.Entry<String, String> entry : productInfo.entrySet()) {
+            String key = entry.getKey();
+            if (containsAny(key, CONTEXT_KEYWORDS) && context.size() < 3) {
+                context.put(key, entry.getValue());
+            }
+            groups.get(groupOf(key)).put(key, entry.getValue());
+        }
+
+        int contextChars = 0;
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            contextChars += entryChars(entry);
+        }
+        int budget = Math.max(chunkMaxChars - contextChars, chunkMaxChars / 2);
+
+        List<Map<String, String>> chunks = new ArrayList<>();
+        for (Map<String, String> group : groups.values()) {
+            Map<String, String> current = new LinkedHashMap<>(context);
+            int currentChars = 0;
+            for (Map.Entry<String, String> entry : group.entrySet()) {
+                int chars = entryChars(entry);
+                if (currentChars > 0 && currentChars + chars > budget) {
+                    chunks.add(current);
+                    current = new LinkedHashMap<>(context);
+                    currentChars = 0;
+                }
+                current.put(entry.getKey(), entry.getValue());
+                currentChars += chars;
+            }
+            if (currentChars > 0) {
+                chunks.add(current);
+            }
+        }
+        return chunks;
+    }
+
+    private static String groupOf(String key) {
+        for (Map.Entry<String, List<String>> group : GROUP_KEYWORDS.entrySet()) {
+            if (containsAny(key, group.getValue())) {
+                return group.getKey();
+            }
+        }
+        return OTHER_GROUP;
+    }
+
+    private static boolean containsAny(String text, List<String> keywords) {
+        for (String keyword : keywords) {
+            if (text.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int entryChars(Map.Entry<String, String> entry) {
+        return entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length()) + 2;
+    }
+
+    /**
+     * 归一化问题：去掉空白和标点，英文转小写
+     */
+    static String normalizeQuestion(String question) {
+        StringBuilder sb = new StringBuilder(question.length());
+        for (int i = 0; i < question.length(); i++) {
+            char c = question.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析大模型返回的QA结果
+     * @param chatResult 大模型返回的结果，格式为：
+     * {
+     *   "qa_pairs": [
+     *     {"question": "问题1", "answer": "答案1"},
+     *     {"question": "问题2", "answer": "答案2"}
+     *   ]
+     * }
+     * @return QA对列表
+     */
+    public List<Map<String, String>> parseQAFromChatResult(String chatResult) {
+        List<Map<String, String>> qaList = new ArrayList<>();
+        try {
+            // 处理输入字符串，移除可能存在的markdown代码块标记
+            String jsonStr = chatResult.trim();
+            if (jsonStr.startsWith("```")) {
+                // 移除开头的```json或```
+                jsonStr = jsonStr.substring(jsonStr.indexOf('\n'));
+                // 移除结尾的```
+                int endIndex = jsonStr.lastIndexOf("```");
+                if (endIndex >= 0) {
+                    jsonStr = jsonStr.substring(0, endIndex);
+                }
+                // 去除首尾空白字符
+                jsonStr = jsonStr.trim();
+            }
+
+            // 首先解析外层的JSON对象
+            Map<String, Object> rootNode = objectMapper.readValue(jsonStr, new TypeReference<Map<String, Object>>() {});
+
+            // 获取qa_pairs数组
+            List<Map<String, String>> qaPairs = (List<Map<String, String>>) rootNode.get("qa_pairs");
+
+            if (qaPairs != null) {
+                qaList.addAll(qaPairs);
+            } else {
+                log.warn("QA解析结果为空，原始数据: {}", jsonStr);
+            }
+        } catch (Exception e) {
+            log.error("解析QA对失败，原始数据: {}", chatResult, e);
+            throw new RuntimeException("解析QA对失败: " + e.getMessage());
+        }
+        return qaList;
+    }
+}
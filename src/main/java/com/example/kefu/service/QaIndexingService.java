@@ -0,0 +1,347 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.response.BulkItemResult;
+import com.example.kefu.util.QaFingerprint;
+import com.example.kefu.util.VectorMath;
+import com.example.kefu.util.VectorQuantizer;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 问答对并行向量化和写入索引
+ *
+ * 问答对按向量接口单次上限分组（同一问答对的问题和答案在同一次请求中生成向量），
+ * 各组在线程池中并行执行 生成向量 -> 批量写入索引。
+ * 同时进行中的组数受两级限制：向量接口全局上限（所有租户共享）和单个租户上限，
+ * 避免一次大批量上传占满向量接口配额。失败按问答对返回。
+ *
+ * 每条文档记录问答对指纹（fingerprint）和所属属性块指纹（chunkFingerprint），
+ * 文档重新处理时据此只写入新增或变化的问答对，并删除不再存在的问答对。
+ */
+@Slf4j
+@Service
+public class QaIndexingService {
+
+    private static final String INDEX_NAME = "qa_vectors";
+
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    @Autowired
+    private AliEmbeddingService aliEmbeddingService;
+
+    @Autowired
+    private ElasticsearchService elasticsearchService;
+
+    @Autowired
+    private LocalVectorIndexService localVectorIndexService;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    @Qualifier("qaIndexExecutor")
+    private ThreadPoolTaskExecutor qaIndexExecutor;
+
+    /**
+     * 每组问答对数量，0表示按向量接口单次上限计算（上限 / 2）
+     */
+    @Value("${qa.index.pairs-per-task:0}")
+    private int pairsPerTask;
+
+    /**
+     * 增量处理时单个产品最多读取的已有问答数量
+     */
+    @Value("${qa.index.max-existing:10000}")
+    private int maxExisting;
+
+    /**
+     * 写入时同时保存int8量化向量及缩放系数（见 {@link VectorQuantizer}），供int8向量检索策略粗排
+     */
+    @Value("${vector.quantization.enabled:false}")
+    private boolean quantizationEnabled;
+
+    private final Semaphore providerPermits;
+
+    private final int tenantMaxInFlight;
+
+    private final Map<Long, Semaphore> tenantPermits = new ConcurrentHashMap<>();
+
+    public QaIndexingService(@Value("${qa.index.provider-max-in-flight:4}") int providerMaxInFlight,
+                             @Value("${qa.index.tenant-max-in-flight:2}") int tenantMaxInFlight) {
+        this.providerPermits = new Semaphore(Math.max(1, providerMaxInFlight), true);
+        this.tenantMaxInFlight = Math.max(1, tenantMaxInFlight);
+    }
+
+    /**
+     * 为问答对生成向量并写入qa_vectors索引
+     *
+     * @param userId     租户（用户）ID
+     * @param baseFields 每条文档共有的字段（userId、shopName、productName等）
+     * @param qaList     问答对列表，每项包含question和answer
+     * @param ids        文档ID列表，为空时由ES生成
+     * @return 每个问答对的写入结果，顺序与qaList一致
+     */
+    public List<BulkItemResult> indexQaPairs(Long userId, Map<String, Object> baseFields,
+                                             List<Map<String, String>> qaList, List<String> ids) {
+        int groupSize = pairsPerTask > 0 ? pairsPerTask : Math.max(1, aliEmbeddingService.getMaxBatchSize() / 2);
+        Semaphore tenant = tenantPermits.computeIfAbsent(userId != null ? userId : -1L,
+                k -> new Semaphore(tenantMaxInFlight, true));
+
+        // 租户并发在提交时控制：等待本租户有空闲名额后再提交下一组，不占用线程池线程
+        List<CompletableFuture<List<BulkItemResult>>> futures = new ArrayList<>();
+        for (int start = 0; start < qaList.size(); start += groupSize) {
+            int from = start;
+            int to = Math.min(start + groupSize, qaList.size());
+            try {
+                tenant.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.add(CompletableFuture.completedFuture(failGroup(from, to, e)));
+                continue;
+            }
+            CompletableFuture<List<BulkItemResult>> future;
+            try {
+                future = CompletableFuture.supplyAsync(
+                        () -> indexGroup(baseFields, qaList, ids, from, to), qaIndexExecutor);
+            } catch (RuntimeException e) {
+                tenant.release();
+                throw e;
+            }
+            futures.add(future.whenComplete((r, e) -> tenant.release()));
+        }
+
+        List<BulkItemResult> results = new ArrayList<>(qaList.size());
+        for (CompletableFuture<List<BulkItemResult>> future : futures) {
+            results.addAll(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * 处理一组问答对，任何异常都转换为该组每个问答对的失败结果
+     */
+    private List<BulkItemResult> indexGroup(Map<String, Object> baseFields, List<Map<String, String>> qaList,
+                                            List<String> ids, int from, int to) {
+        try {
+            // 问题和答案在同一次请求中生成向量：[q1, a1, q2, a2, ...]
+            List<String> texts = new ArrayList<>((to - from) * 2);
+            for (int i = from; i < to; i++) {
+                texts.add(qaList.get(i).get("question"));
+                texts.add(qaList.get(i).get("answer"));
+            }
+            List<float[]> vectors;
+            providerPermits.acquire();
+            try {
+                vectors = aliEmbeddingService.getEmbeddings(texts);
+            } finally {
+                providerPermits.release();
+            }
+
+            List<Map<String, Object>> esDocuments = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                Map<String, String> qa = qaList.get(i);
+                Map<String, Object> esDocument = new HashMap<>(baseFields);
+                esDocument.put("question", qa.get("question"));
+                esDocument.put("answer", qa.get("answer"));
+                // 向量归一化为单位长度，检索时可用点积代替余弦相似度
+                float[] questionVector = VectorMath.normalize(vectors.get((i - from) * 2));
+                float[] answerVector = VectorMath.normalize(vectors.get((i - from) * 2 + 1));
+                esDocument.put("question_vector", questionVector);
+                esDocument.put("answer_vector", answerVector);
+                if (quantizationEnabled) {
+                    VectorQuantizer.putQuantized(esDocument, "question_vector", questionVector);
+                    VectorQuantizer.putQuantized(esDocument, "answer_vector", answerVector);
+                }
+                esDocument.put("fingerprint", QaFingerprint.of(qa.get("question"), qa.get("answer")));
+                if (qa.get(QaGenerationService.CHUNK_FINGERPRINT) != null) {
+                    esDocument.put(QaGenerationService.CHUNK_FINGERPRINT, qa.get(QaGenerationService.CHUNK_FINGERPRINT));
+                }
+
+                // 添加时间戳
+                esDocument.put("createTime", LocalDateTime.now());
+                esDocument.put("updateTime", LocalDateTime.now());
+                esDocuments.add(esDocument);
+            }
+            return elasticsearchService.saveDocumentsToIndex(INDEX_NAME,
+                    ids != null ? ids.subList(from, to) : null, esDocuments);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return failGroup(from, to, e);
+        }
+    }
+
+    /**
+     * 查询产品下由文档生成的已有问答（不含向量）
+     *
+     * @return 每项包含 id、question、answer、fingerprint、chunkFingerprint
+     */
+    public List<Map<String, String>> findExisting(Long userId, Long productId, String productName) throws IOException {
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder()
+                .query(scopeQuery(userId, productId, productName))
+                .fetchSource(new String[]{"question", "answer", "fingerprint", QaGenerationService.CHUNK_FINGERPRINT}, null)
+                .size(maxExisting);
+        SearchResponse response = client.search(new SearchRequest(INDEX_NAME).source(sourceBuilder), RequestOptions.DEFAULT);
+        if (response.getHits().getTotalHits() != null && response.getHits().getTotalHits().value > maxExisting) {
+            log.warn("已有问答数量超过读取上限, userId: {}, productId: {}, 数量: {}, 上限: {}",
+                    userId, productId, response.getHits().getTotalHits().value, maxExisting);
+        }
+
+        List<Map<String, String>> existing = new ArrayList<>();
+        for (SearchHit hit : response.getHits().getHits()) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            Map<String, String> qa = new HashMap<>();
+            qa.put("id", hit.getId());
+            qa.put("question", (String) source.get("question"));
+            qa.put("answer", (String) source.get("answer"));
+            qa.put("fingerprint", (String) source.get("fingerprint"));
+            qa.put(QaGenerationService.CHUNK_FINGERPRINT, (String) source.get(QaGenerationService.CHUNK_FINGERPRINT));
+            existing.add(qa);
+        }
+        return existing;
+    }
+
+    /**
+     * 删除产品下由文档生成、指纹不在保留集合中的问答
+     *
+     * 待删除的ID由scroll精确查出（不受 {@link #findExisting} 读取上限影响，也包括其他任务写入的问答），
+     * 每个删除的ID都同步到本地向量索引和语义缓存。
+     *
+     * @return 删除数量
+     */
+    public long deleteStale(Long userId, Long productId, String productName,
+                            Collection<String> keepFingerprints) throws IOException {
+        BoolQueryBuilder query = scopeQuery(userId, productId, productName)
+                .mustNot(QueryBuilders.termsQuery("fingerprint", keepFingerprints));
+        long deleted = deleteMatching(userId, query);
+        log.info("删除旧问答, userId: {}, productId: {}, 数量: {}", userId, productId, deleted);
+        return deleted;
+    }
+
+    /**
+     * 删除某个文档生成的全部问答（重新生成前清理上次失败时已写入的问答）
+     *
+     * @return 删除数量
+     */
+    public long deleteByDocument(Long userId, Long documentId) throws IOException {
+        long deleted = deleteMatching(userId, QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery("userId", userId))
+                .filter(QueryBuilders.termQuery("documentId", documentId)));
+        log.info("删除文档已写入的问答, userId: {}, documentId: {}, 数量: {}", userId, documentId, deleted);
+        return deleted;
+    }
+
+    /**
+     * 先用scroll查出所有匹配的文档ID，再按ID批量删除，每个删除的ID都同步到本地向量索引和语义缓存
+     *
+     * @return 删除数量
+     */
+    private long deleteMatching(Long userId, QueryBuilder query) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(INDEX_NAME);
+        searchRequest.scroll(TimeValue.timeValueMinutes(1));
+        searchRequest.source(new SearchSourceBuilder()
+                .query(query)
+                .size(DELETE_BATCH_SIZE)
+                .fetchSource(false));
+
+        long deleted = 0;
+        String failure = null;
+        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+        String scrollId = response.getScrollId();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                BulkRequest bulkRequest = new BulkRequest().setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+                for (SearchHit hit : response.getHits().getHits()) {
+                    bulkRequest.add(new DeleteRequest(INDEX_NAME, hit.getId()));
+                }
+                BulkResponse bulkResponse = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed()) {
+                        failure = item.getFailureMessage();
+                        continue;
+                    }
+                    deleted++;
+                    localVectorIndexService.onDocumentDeleted(userId, item.getId());
+                    semanticAnswerCache.onDocumentDeleted(userId, item.getId());
+                }
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(TimeValue.timeValueMinutes(1));
+                response = client.scroll(scrollRequest, RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+            queryResultCache.invalidate(INDEX_NAME);
+        }
+        if (failure != null) {
+            throw new RuntimeException("删除问答失败: " + failure);
+        }
+        return deleted;
+    }
+
+    /**
+     * 产品范围：同一用户、同一产品下由文档上传生成的问答（直接上传的问答数据不含documentId，不受影响）
+     */
+    private static BoolQueryBuilder scopeQuery(Long userId, Long productId, String productName) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery("userId", userId))
+                .filter(QueryBuilders.existsQuery("documentId"));
+        if (productId != null) {
+            query.filter(QueryBuilders.termQuery("productId", productId));
+        }
+        if (productName != null) {
+            query.filter(QueryBuilders.termQuery("productName", productName));
+        }
+        return query;
+    }
+
+    private List<BulkItemResult> failGroup(int from, int to, Exception e) {
+        log.error("处理问答对失败, 范围: [{}, {})", from, to, e);
+        List<BulkItemResult> failed = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            failed.add(new BulkItemResult(null, "生成向量或写入索引失败: " + e.getMessage()));
+        }
+        return failed;
+    }
+}
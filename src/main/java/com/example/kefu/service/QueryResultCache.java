@@ -0,0 +1,273 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.response.SearchHits;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ES查询结果缓存
+ *
+ * 以 (索引, 规范化后的DSL的哈希) 为key缓存 _search 结果。每个索引有一个写入代数，
+ * 通过本服务写入、删除该索引时代数加一，代数不一致的缓存视为失效。
+ * 写入后的刷新间隔内（新数据尚不可见）查询结果不写入缓存，避免缓存到刷新前的结果。
+ * 缓存按条数和估算大小淘汰最久未使用的结果，并有过期时间。
+ */
+@Service
+public class QueryResultCache {
+
+    /**
+     * 缓存key，取SHA-256的前128位
+     */
+    private static final class CacheKey {
+        private final String indexName;
+        private final long hi;
+        private final long lo;
+
+        CacheKey(String indexName, long hi, long lo) {
+            this.indexName = indexName;
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return hi == other.hi && lo == other.lo && indexName.equals(other.indexName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hi ^ (hi >>> 32) ^ lo ^ (lo >>> 32)) * 31 + indexName.hashCode();
+        }
+    }
+
+    private static final class CacheEntry {
+        private final SearchHits result;
+        private final long generation;
+        private final long createTime;
+        private final long size;
+
+        CacheEntry(SearchHits result, long generation, long size) {
+            this.result = result;
+            this.generation = generation;
+            this.createTime = System.currentTimeMillis();
+            this.size = size;
+        }
+    }
+
+    /**
+     * 单个索引的写入状态
+     */
+    private static final class IndexState {
+        private final AtomicLong generation = new AtomicLong();
+        private volatile long lastWriteTime;
+    }
+
+    @Value("${elasticsearch.query-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${elasticsearch.query-cache.max-entries:2000}")
+    private int maxEntries;
+
+    /**
+     * 缓存结果总大小上限（按响应字节数估算）
+     */
+    @Value("${elasticsearch.query-cache.max-bytes:50000000}")
+    private long maxBytes;
+
+    @Value("${elasticsearch.query-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    /**
+     * 写入后多长时间内不缓存查询结果，应不小于索引的 refresh_interval
+     */
+    @Value("${elasticsearch.query-cache.refresh-grace-ms:2000}")
+    private long refreshGraceMillis;
+
+    private LinkedHashMap<CacheKey, CacheEntry> cache;
+
+    private long totalBytes;
+
+    private final Map<String, IndexState> indexStates = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 查询前调用，获取本次查询的缓存令牌
+     *
+     * @param indexName 索引名称
+     * @param canonicalDsl 规范化后的DSL（字段按名称排序的JSON）
+     * @return 缓存令牌，缓存未启用时返回null
+     */
+    public Ticket open(String indexName, String canonicalDsl) {
+        if (!enabled) {
+            return null;
+        }
+        IndexState state = stateOf(indexName);
+        // 先读取代数再读取写入时间，与写入时的顺序相反：读到新代数时一定能读到对应的写入时间
+        long generation = state.generation.get();
+        long lastWriteTime = state.lastWriteTime;
+        return new Ticket(keyOf(indexName, canonicalDsl), generation,
+                System.currentTimeMillis() - lastWriteTime >= refreshGraceMillis);
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @return 缓存的查询结果（共享对象，调用方不要修改），未命中返回null
+     */
+    public SearchHits get(Ticket ticket) {
+        if (ticket == null) {
+            return null;
+        }
+        long expireBefore = System.currentTimeMillis() - ttlSeconds * 1000L;
+        synchronized (this) {
+            CacheEntry entry = cache.get(ticket.key);
+            if (entry != null && (entry.generation != ticket.generation || entry.createTime < expireBefore)) {
+                remove(ticket.key);
+                entry = null;
+            }
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.result;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存，查询期间索引有写入或处于刷新窗口内时不写入
+     *
+     * @param ticket 查询前获取的令牌
+     * @param result 查询结果
+     * @param size 结果大小（响应字节数）
+     */
+    public void put(Ticket ticket, SearchHits result, long size) {
+        if (ticket == null || !ticket.cacheable || size > maxBytes / 10) {
+            return;
+        }
+        IndexState state = stateOf(ticket.key.indexName);
+        if (state.generation.get() != ticket.generation) {
+            return;
+        }
+        synchronized (this) {
+            CacheEntry previous = cache.put(ticket.key, new CacheEntry(result, ticket.generation, size));
+            totalBytes += size - (previous != null ? previous.size : 0);
+            while (!cache.isEmpty() && (cache.size() > maxEntries || totalBytes > maxBytes)) {
+                CacheKey eldest = cache.keySet().iterator().next();
+                remove(eldest);
+                evictions.incrementAndGet();
+            }
+        }
+        puts.incrementAndGet();
+    }
+
+    /**
+     * 索引有写入或删除后调用，使该索引的缓存失效
+     *
+     * @param indexName 索引名称
+     */
+    public void invalidate(String indexName) {
+        IndexState state = stateOf(indexName);
+        state.lastWriteTime = System.currentTimeMillis();
+        state.generation.incrementAndGet();
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * 无法确定写入的索引时调用，使所有索引的缓存失效
+     */
+    public void invalidateAll() {
+        for (String indexName : indexStates.keySet()) {
+            invalidate(indexName);
+        }
+        synchronized (this) {
+            cache.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = hits.get() + misses.get();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("entries", cache.size());
+            stats.put("bytes", totalBytes);
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits.get() / total);
+        stats.put("puts", puts.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    /**
+     * 一次查询的缓存令牌：key、查询开始时的写入代数、是否可以写入缓存
+     */
+    public static final class Ticket {
+        private final CacheKey key;
+        private final long generation;
+        private final boolean cacheable;
+
+        private Ticket(CacheKey key, long generation, boolean cacheable) {
+            this.key = key;
+            this.generation = generation;
+            this.cacheable = cacheable;
+        }
+    }
+
+    private void remove(CacheKey key) {
+        CacheEntry removed = cache.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.size;
+        }
+    }
+
+    private IndexState stateOf(String indexName) {
+        return indexStates.computeIfAbsent(indexName, k -> new IndexState());
+    }
+
+    private static CacheKey keyOf(String indexName, String canonicalDsl) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(canonicalDsl.getBytes(StandardCharsets.UTF_8)));
+            return new CacheKey(indexName, hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,21 +5,20 @@ import com.alibaba.dashscope.aigc.generation.GenerationParam;
 import com.alibaba.dashscope.aigc.generation.GenerationResult;
 import com.alibaba.dashscope.common.Message;
 import com.alibaba.dashscope.common.Role;
-import com.example.kefu.model.EmbeddingRequest;
-import com.example.kefu.model.EmbeddingResponse;
 import com.example.kefu.model.request.ChatRequest;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.example.kefu.util.SpreadsheetReader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 千问大模型服务
@@ -55,67 +54,14 @@ public class QwenService {
     }
 
     /**
-     * 解析Excel文件
+     * 解析Excel文件（流式读取，支持xlsx和xls及多个工作表）
      *
      * @param file Excel文件
      * @return 产品信息映射
      */
     private Map<String, String> parseExcel(MultipartFile file) throws IOException {
-        Map<String, String> productInfo = new HashMap<>();
-        
-        try (Workbook workbook = new XSSFWorkbook(file.getInputStream())) {
-            Sheet sheet = workbook.getSheetAt(0);
-            
-            // 遍历行
-            for (Row row : sheet) {
-                // 跳过空行
-                if (row.getCell(0) == null || row.getCell(1) == null) {
-                    continue;
-                }
-                
-                // 获取第一列（属性名）和第二列（属性值）
-                String key = getCellValueAsString(row.getCell(0));
-                String value = getCellValueAsString(row.getCell(1));
-                
-                // 如果key不为空，添加到map中
-                if (!key.trim().isEmpty()) {
-                    productInfo.put(key, value);
-                }
-            }
-        }
-        
-        return productInfo;
-    }
-
-    /**
-     * 获取单元格的字符串值
-     */
-    private String getCellValueAsString(Cell cell) {
-        if (cell == null) {
-            return "";
-        }
-        
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
-                } else {
-                    // 处理数字，避免科学计数法
-                    double value = cell.getNumericCellValue();
-                    if (value == (long) value) {
-                        return String.format("%d", (long) value);
-                    } else {
-                        return String.format("%.2f", value);
-                    }
-                }
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return "";
+        try (InputStream inputStream = file.getInputStream()) {
+            return SpreadsheetReader.readKeyValues(inputStream);
         }
     }
 
@@ -187,6 +133,7 @@ public class QwenService {
      *
      * @param question 用户问题
      * @return 回答内容
+     * @throws RuntimeException 调用失败或没有返回内容时抛出，避免调用方把错误提示当作回答保存
      */
     public String chat(String question) {
         try {
@@ -221,16 +168,71 @@ public class QwenService {
                 && result.getOutput().getChoices().get(0).getMessage() != null) {
                 return result.getOutput().getChoices().get(0).getMessage().getContent();
             } else {
-                return "抱歉，无法获取回答。";
+                throw new RuntimeException("大模型没有返回回答内容");
             }
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
-            return "抱歉，处理您的问题时出现了错误：" + e.getMessage();
+            throw new RuntimeException("调用大模型失败: " + e.getMessage(), e);
         }
     }
 
 
 
+    /**
+     * 流式聊天接口
+     * 使用增量输出，模型每生成一段内容就回调一次，最终返回完整回答
+     *
+     * @param question 用户问题
+     * @param onDelta 增量内容回调，回调抛出异常时终止生成（如客户端已断开）
+     * @return 完整回答内容
+     */
+    public String chatStream(String question, Consumer<String> onDelta) {
+        // 系统提示语
+        Message systemMsg = Message.builder()
+                .role(Role.SYSTEM.getValue())
+                .content("你是一个专业的客服助手，请用简洁、专业的语言回答用户的问题。")
+                .build();
+
+        // 用户问题
+        Message userMsg = Message.builder()
+                .role(Role.USER.getValue())
+                .content(question)
+                .build();
+
+        // 构建请求参数，incrementalOutput为true时每次只返回新生成的内容
+        GenerationParam param = GenerationParam.builder()
+                .model("qwen-plus")
+                .apiKey(apiKey)
+                .messages(Arrays.asList(systemMsg, userMsg))
+                .resultFormat(GenerationParam.ResultFormat.MESSAGE)
+                .topP(0.8)
+                .enableSearch(true)
+                .incrementalOutput(true)
+                .build();
+
+        StringBuilder answer = new StringBuilder();
+        try {
+            generation.streamCall(param).blockingForEach(result -> {
+                if (result == null || result.getOutput() == null || result.getOutput().getChoices() == null
+                        || result.getOutput().getChoices().isEmpty()
+                        || result.getOutput().getChoices().get(0).getMessage() == null) {
+                    return;
+                }
+                String delta = result.getOutput().getChoices().get(0).getMessage().getContent();
+                if (delta != null && !delta.isEmpty()) {
+                    answer.append(delta);
+                    onDelta.accept(delta);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("调用大模型流式接口失败: " + e.getMessage(), e);
+        }
+        return answer.toString();
+    }
+
     /**
      * 聊天测试接口
      *
@@ -323,18 +325,10 @@ public class QwenService {
     public String answer(ChatRequest request) throws IOException {
 
 //        把用户的问题通过向量方法变成向量，参考复用aliEmbeddingService.getEmbedding(embeddingRequest);
-        EmbeddingRequest embeddingRequest = new EmbeddingRequest();
-        embeddingRequest.setInput(request.getQuestion());
-        EmbeddingResponse embeddingResponse = aliEmbeddingService.getEmbedding(embeddingRequest);
+        float[] vector = aliEmbeddingService.embed(request.getQuestion());
 
 //        然后构建对es的查询条件，用户id精确匹配，店名和产品名精确匹配，在按照向量查询排序，
 
-        List<Float> embeddingList = embeddingResponse.getData().get(0).getEmbedding();
-        float[] vector = new float[embeddingList.size()];
-        for (int i = 0; i < embeddingList.size(); i++) {
-            vector[i] = embeddingList.get(i);
-        }
-
         List<Map<String, Object>> results = elasticsearchService.searchSimilarDocumentsInIndex(
                 "a_vectors",
                 vector,
@@ -0,0 +1,440 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.request.RagQuery;
+import com.example.kefu.model.response.SearchHits;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 检索增强问答流水线
+ *
+ * 聊天历史、全文检索、向量生成 + 向量检索 各阶段并发执行，关键路径为各阶段耗时的最大值。
+ * 每个阶段都有独立的超时时间：聊天历史超时则不带历史，向量生成或向量检索超时/失败则退回全文检索结果，
+ * 检索全部失败时不带参考问答直接由大模型回答。
+ * 向量/混合检索在没有聊天历史时先查询语义回答缓存（见 {@link SemanticAnswerCache}），命中时不再检索和调用大模型；
+ * 检索降级或大模型调用失败时的回答不写入缓存。
+ */
+@Slf4j
+@Service
+public class RagPipeline {
+
+    private static final String INDEX_NAME = "qa_vectors";
+
+    private static final List<String> SEARCH_FIELDS = Arrays.asList("question", "answer");
+
+    /**
+     * 只取提示词需要的字段
+     */
+    private static final List<String> INCLUDE_FIELDS = Arrays.asList("question", "answer");
+
+    @Autowired
+    private QwenService qwenService;
+
+    @Autowired
+    private EmbeddingBatcher embeddingBatcher;
+
+    @Autowired
+    private ElasticsearchService elasticsearchService;
+
+    @Autowired
+    private ChatHistoryManager chatHistoryManager;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    @Qualifier("ragExecutor")
+    private ThreadPoolTaskExecutor ragExecutor;
+
+    @Autowired
+    @Qualifier("chatStreamExecutor")
+    private ThreadPoolTaskExecutor chatStreamExecutor;
+
+    @Value("${chat.rag.history-timeout-ms:500}")
+    private long historyTimeoutMillis;
+
+    @Value("${chat.rag.embedding-timeout-ms:1500}")
+    private long embeddingTimeoutMillis;
+
+    @Value("${chat.rag.retrieval-timeout-ms:3000}")
+    private long retrievalTimeoutMillis;
+
+    /**
+     * 向量/混合检索时是否同时发起全文检索，作为向量链路超时或失败时的兜底结果
+     */
+    @Value("${chat.rag.speculative-text-search:true}")
+    private boolean speculativeTextSearch;
+
+    /**
+     * 自适应top-k：向量检索结果相邻分数的相对下降超过该值时截断，0表示不截断
+     */
+    @Value("${chat.rag.adaptive-top-k.max-drop-ratio:0.05}")
+    private double maxScoreDropRatio;
+
+    /**
+     * 混合检索时同时检索多个向量字段，与全文检索通过一次 _msearch 请求完成
+     */
+    @Value("${chat.rag.multi-signal.enabled:false}")
+    private boolean multiSignalEnabled;
+
+    @Value("${chat.rag.multi-signal.vector-fields:question_vector,answer_vector}")
+    private String[] multiSignalVectorFields;
+
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "rag-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        timeoutScheduler.shutdownNow();
+    }
+
+    /**
+     * 检索并生成回答，完成后保存聊天记录
+     *
+     * @param query 问答请求
+     * @return 回答内容
+     */
+    public String answer(RagQuery query) {
+        Prepared prepared = prepare(query).join();
+        if (prepared.cachedAnswer != null) {
+            complete(query, prepared, prepared.cachedAnswer, false);
+            return prepared.cachedAnswer;
+        }
+        String answer;
+        boolean generated;
+        try {
+            answer = qwenService.chat(prepared.prompt);
+            generated = true;
+        } catch (RuntimeException e) {
+            log.error("大模型生成回答失败", e);
+            answer = "抱歉，处理您的问题时出现了错误：" + e.getMessage();
+            generated = false;
+        }
+        complete(query, prepared, answer, generated);
+        return answer;
+    }
+
+    /**
+     * 检索并流式生成回答，完成后保存聊天记录
+     * 检索阶段不占用调用线程，生成阶段在流式问答线程池中执行
+     *
+     * @param query 问答请求
+     * @param onDelta 增量内容回调
+     * @return 完整回答内容
+     */
+    public CompletableFuture<String> answerStream(RagQuery query, Consumer<String> onDelta) {
+        return prepare(query).thenApplyAsync(prepared -> {
+            String answer;
+            if (prepared.cachedAnswer != null) {
+                answer = prepared.cachedAnswer;
+                onDelta.accept(answer);
+                complete(query, prepared, answer, false);
+            } else {
+                // 调用失败时抛出异常，不会保存聊天记录和写入缓存
+                answer = qwenService.chatStream(prepared.prompt, onDelta);
+                complete(query, prepared, answer, !answer.isEmpty());
+            }
+            return answer;
+        }, chatStreamExecutor);
+    }
+
+    /**
+     * 并发获取聊天历史和相关问答，组装提示词
+     *
+     * @param query 问答请求
+     * @return 提示词
+     */
+    public CompletableFuture<String> preparePrompt(RagQuery query) {
+        return prepare(query).thenApply(prepared -> prepared.prompt);
+    }
+
+    /**
+     * 组装好的提示词，或语义缓存命中的回答
+     */
+    private static final class Prepared {
+        private String prompt;
+        private String cachedAnswer;
+        private boolean cacheable;
+        private long cacheVersion;
+        private float[] vector;
+        private List<String> documentIds;
+        private boolean withHistory;
+        /**
+         * 检索失败或超时（退回全文检索或不带参考问答），此时生成的回答不写入语义缓存
+         */
+        private boolean retrievalDegraded;
+
+        static Prepared cached(String answer) {
+            Prepared prepared = new Prepared();
+            prepared.cachedAnswer = answer;
+            return prepared;
+        }
+    }
+
+    /**
+     * 检索结果
+     */
+    private static final class Retrieval {
+        private final List<SearchHits.Hit> hits;
+        private final boolean degraded;
+
+        Retrieval(List<SearchHits.Hit> hits, boolean degraded) {
+            this.hits = hits;
+            this.degraded = degraded;
+        }
+    }
+
+    /**
+     * 查询语义缓存，未命中时并发获取聊天历史和相关问答，组装提示词
+     */
+    private CompletableFuture<Prepared> prepare(RagQuery query) {
+        boolean cacheable = semanticAnswerCache.isCacheable(query);
+        long cacheVersion = cacheable ? semanticAnswerCache.version(query) : 0;
+
+        CompletableFuture<String> history = withTimeout(
+                CompletableFuture.supplyAsync(() -> chatHistoryManager.getChatHistory(query.getTableId()), ragExecutor),
+                historyTimeoutMillis, "获取聊天历史")
+                .exceptionally(e -> {
+                    log.warn("获取聊天历史失败，不带历史继续: {}", rootMessage(e));
+                    return "";
+                });
+
+        CompletableFuture<float[]> vector = null;
+        CompletableFuture<String> cached = CompletableFuture.completedFuture(null);
+        if (query.getMode() == RagQuery.Mode.VECTOR || query.getMode() == RagQuery.Mode.HYBRID) {
+            vector = withTimeout(embeddingBatcher.submit(query.getQuestion()), embeddingTimeoutMillis, "生成问题向量");
+            if (cacheable) {
+                // 多轮对话中的追问依赖上下文，与写入条件一致：只有没有聊天历史时才查询缓存
+                CompletableFuture<float[]> lookupVector = vector;
+                cached = history.thenCompose(chatHistory -> {
+                    if (!chatHistory.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    String exact = semanticAnswerCache.getExact(query);
+                    if (exact != null) {
+                        return CompletableFuture.completedFuture(exact);
+                    }
+                    return lookupVector.handle((v, e) -> e == null ? semanticAnswerCache.get(query, v) : null);
+                });
+            }
+        }
+
+        CompletableFuture<float[]> questionVector = vector;
+        CompletableFuture<Retrieval> documents = retrieve(query, questionVector, cached);
+
+        return cached.thenCompose(answer -> {
+            if (answer != null) {
+                return CompletableFuture.completedFuture(Prepared.cached(answer));
+            }
+            return history.thenCombine(documents, (chatHistory, retrieval) -> {
+                Prepared prepared = new Prepared();
+                prepared.prompt = buildPrompt(chatHistory, query, retrieval.hits);
+                prepared.cacheable = cacheable;
+                prepared.cacheVersion = cacheVersion;
+                prepared.vector = valueOrNull(questionVector);
+                prepared.documentIds = documentIds(retrieval.hits);
+                prepared.withHistory = !chatHistory.isEmpty();
+                prepared.retrievalDegraded = retrieval.degraded;
+                return prepared;
+            });
+        });
+    }
+
+    /**
+     * 保存聊天记录；大模型生成成功、检索正常完成且不带聊天历史的回答写入语义缓存
+     *
+     * @param generated 回答是否由大模型成功生成（缓存命中或生成失败时为false）
+     */
+    private void complete(RagQuery query, Prepared prepared, String answer, boolean generated) {
+        chatHistoryManager.addChatRecord(query.getTableId(), query.getQuestion(), answer);
+        if (generated && prepared.cacheable && !prepared.withHistory && !prepared.retrievalDegraded
+                && prepared.vector != null) {
+            semanticAnswerCache.put(query, prepared.vector, prepared.documentIds, answer, prepared.cacheVersion);
+        }
+    }
+
+    /**
+     * 检索相关问答
+     *
+     * @param vector 问题向量，全文检索或不检索时为null
+     * @param cached 语义缓存查询结果，命中时不再进行向量检索
+     * @return 检索结果，退回全文检索或检索失败时标记为降级
+     */
+    private CompletableFuture<Retrieval> retrieve(RagQuery query, CompletableFuture<float[]> vector,
+                                                  CompletableFuture<String> cached) {
+        if (query.getMode() == RagQuery.Mode.NONE) {
+            return CompletableFuture.completedFuture(new Retrieval(Collections.emptyList(), false));
+        }
+        if (query.getMode() == RagQuery.Mode.TEXT) {
+            return textSearch(query).thenApply(hits -> new Retrieval(hits, false)).exceptionally(e -> {
+                log.warn("全文检索失败，不带参考问答继续: {}", rootMessage(e));
+                return new Retrieval(Collections.emptyList(), true);
+            });
+        }
+
+        // 全文检索与向量链路同时开始
+        CompletableFuture<List<SearchHits.Hit>> speculative = speculativeTextSearch ? textSearch(query) : null;
+
+        CompletableFuture<List<SearchHits.Hit>> primary = cached.thenCompose(answer -> answer != null
+                ? CompletableFuture.completedFuture(Collections.<SearchHits.Hit>emptyList())
+                : vector.thenCompose(v -> async(() -> query.getMode() == RagQuery.Mode.VECTOR
+                        ? vectorSearch(query, v) : hybridSearch(query, v), "向量检索")));
+
+        return primary.handle((relevantDocs, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(new Retrieval(relevantDocs, false));
+            }
+            log.warn("向量检索链路失败，退回全文检索: {}", rootMessage(e));
+            return (speculative != null ? speculative : textSearch(query)).thenApply(hits -> new Retrieval(hits, true));
+        }).thenCompose(future -> future).exceptionally(e -> {
+            log.warn("检索失败，不带参考问答继续: {}", rootMessage(e));
+            return new Retrieval(Collections.emptyList(), true);
+        });
+    }
+
+    private CompletableFuture<List<SearchHits.Hit>> textSearch(RagQuery query) {
+        return async(() -> elasticsearchService.searchByText(
+                INDEX_NAME, query.getQuestion(), SEARCH_FIELDS, query.getUserId(), query.getShopName(),
+                query.getProductName(), query.getTopK(), INCLUDE_FIELDS, null, query.getThreshold()).getHits(), "全文检索");
+    }
+
+    private List<SearchHits.Hit> vectorSearch(RagQuery query, float[] vector) throws Exception {
+        return elasticsearchService.searchByVector(
+                INDEX_NAME, query.getUserId(), query.getShopName(), query.getProductName(), vector,
+                query.getTopK(), (float) query.getThreshold(), INCLUDE_FIELDS, null, query.getVectorField())
+                .truncateAtScoreGap(maxScoreDropRatio);
+    }
+
+    private List<SearchHits.Hit> hybridSearch(RagQuery query, float[] vector) throws Exception {
+        if (multiSignalEnabled) {
+            return elasticsearchService.searchMultiSignal(
+                    Collections.singletonList(INDEX_NAME), query.getQuestion(), SEARCH_FIELDS, vector,
+                    Arrays.asList(multiSignalVectorFields), query.getTextWeight(), query.getVectorWeight(),
+                    query.getUserId(), query.getShopName(), query.getProductName(), query.getTopK(),
+                    INCLUDE_FIELDS, null, query.getThreshold()).getHits();
+        }
+        return elasticsearchService.searchHybrid(
+                INDEX_NAME, query.getQuestion(), SEARCH_FIELDS, vector, query.getTextWeight(), query.getVectorWeight(),
+                query.getUserId(), query.getShopName(), query.getProductName(), query.getTopK(),
+                INCLUDE_FIELDS, null, query.getVectorField(), query.getThreshold()).getHits();
+    }
+
+    /**
+     * 构建提示词：聊天历史 + 问题 + 相关问答信息 + 回答要求
+     * 没有相关问答时只包含聊天历史和问题
+     */
+    private String buildPrompt(String chatHistory, RagQuery query, List<SearchHits.Hit> relevantDocs) {
+        StringBuilder prompt = new StringBuilder();
+
+        // 添加聊天历史
+        if (!chatHistory.isEmpty()) {
+            prompt.append(chatHistory);
+        }
+
+        prompt.append(query.getQuestionText() != null ? query.getQuestionText() : query.getQuestion());
+
+        if (relevantDocs.isEmpty()) {
+            return prompt.toString();
+        }
+
+        prompt.append("以下是一些相关的问答信息，请参考这些信息来回答我的问题：\n\n");
+
+        for (SearchHits.Hit hit : relevantDocs) {
+            prompt.append("问题：").append(hit.getString("question")).append("\n");
+            prompt.append("答案：").append(hit.getString("answer")).append("\n\n");
+        }
+
+        if (query.getInstruction() != null) {
+            prompt.append(query.getInstruction());
+        }
+        return prompt.toString();
+    }
+
+    /**
+     * 可抛出受检异常的任务
+     */
+    private interface Stage<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * 在检索线程池中执行阶段任务，并加上检索超时
+     */
+    private <T> CompletableFuture<T> async(Stage<T> stage, String name) {
+        Supplier<T> supplier = () -> {
+            try {
+                return stage.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        };
+        return withTimeout(CompletableFuture.supplyAsync(supplier, ragExecutor), retrievalTimeoutMillis, name);
+    }
+
+    /**
+     * 为阶段加上超时，超时后返回的future以TimeoutException结束（原任务不会被中断）
+     */
+    private <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeoutMillis, String name) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(
+                () -> result.completeExceptionally(new TimeoutException(name + "超时(" + timeoutMillis + "ms)")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((value, e) -> {
+            timeout.cancel(false);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    private static List<String> documentIds(List<SearchHits.Hit> relevantDocs) {
+        List<String> ids = new ArrayList<>(relevantDocs.size());
+        for (SearchHits.Hit hit : relevantDocs) {
+            ids.add(hit.getId());
+        }
+        return ids;
+    }
+
+    private static <T> T valueOrNull(CompletableFuture<T> future) {
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.join();
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+}
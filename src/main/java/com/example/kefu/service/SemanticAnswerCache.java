@@ -0,0 +1,369 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.request.RagQuery;
+import com.example.kefu.util.VectorMath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义回答缓存
+ *
+ * 按 (userId, shopName, productName) 划分范围，每条缓存记录问题向量、参考问答的文档ID和最终回答。
+ * 新问题与缓存问题的余弦相似度达到阈值时直接返回缓存的回答，不再检索和调用大模型；
+ * 归一化后完全相同的问题不需要生成向量即可命中。
+ * 同一范围内的问答数据有写入或删除时，该范围的缓存失效。
+ */
+@Slf4j
+@Service
+public class SemanticAnswerCache {
+
+    /**
+     * 缓存记录，向量已归一化为单位长度
+     */
+    private static final class Entry {
+        private final String variant;
+        private final String normalizedQuestion;
+        private final float[] vector;
+        private final Set<String> documentIds;
+        private final String answer;
+        private final long createTime;
+
+        Entry(String variant, String normalizedQuestion, float[] vector, Set<String> documentIds, String answer) {
+            this.variant = variant;
+            this.normalizedQuestion = normalizedQuestion;
+            this.vector = vector;
+            this.documentIds = documentIds;
+            this.answer = answer;
+            this.createTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 全局递增的版本号，范围被清理后重新创建也不会与旧版本号重复
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * 一个缓存范围，所有操作在该对象上同步
+     */
+    private static final class Scope {
+        private final Long userId;
+        private final String shopName;
+        private final String productName;
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private long version = VERSIONS.incrementAndGet();
+
+        Scope(Long userId, String shopName, String productName) {
+            this.userId = userId;
+            this.shopName = shopName;
+            this.productName = productName;
+        }
+
+        /**
+         * 写入的问答数据是否可能出现在该范围的检索结果中（范围未指定店铺/产品时匹配该用户所有数据）
+         */
+        boolean covers(Object shopName, Object productName) {
+            return (this.shopName == null || shopName == null || this.shopName.equals(shopName))
+                    && (this.productName == null || productName == null || this.productName.equals(productName));
+        }
+
+        synchronized void invalidate() {
+            entries.clear();
+            version = VERSIONS.incrementAndGet();
+        }
+    }
+
+    @Value("${chat.semantic-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 命中所需的最小余弦相似度
+     */
+    @Value("${chat.semantic-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${chat.semantic-cache.max-entries-per-scope:500}")
+    private int maxEntriesPerScope;
+
+    @Value("${chat.semantic-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong semanticHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 查询是否使用缓存：需要向量检索且指定了用户
+     */
+    public boolean isCacheable(RagQuery query) {
+        return enabled && query.getUserId() != null
+                && (query.getMode() == RagQuery.Mode.VECTOR || query.getMode() == RagQuery.Mode.HYBRID);
+    }
+
+    /**
+     * 当前范围的版本号，生成回答前获取，写入缓存时校验，期间数据有变化则不写入
+     */
+    public long version(RagQuery query) {
+        Scope scope = scopeOf(query);
+        synchronized (scope) {
+            return scope.version;
+        }
+    }
+
+    /**
+     * 按归一化后的问题精确查找，不需要问题向量
+     *
+     * @return 缓存的回答，未命中返回null
+     */
+    public String getExact(RagQuery query) {
+        Scope scope = scopes.get(scopeKey(query.getUserId(), query.getShopName(), query.getProductName()));
+        if (scope == null) {
+            return null;
+        }
+        String variant = variantOf(query);
+        String question = normalize(query.getQuestion());
+        long expireBefore = expireBefore();
+        synchronized (scope) {
+            for (Entry entry : scope.entries) {
+                if (entry.createTime >= expireBefore && entry.variant.equals(variant)
+                        && entry.normalizedQuestion.equals(question)) {
+                    exactHits.incrementAndGet();
+                    return entry.answer;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按问题向量查找相似度最高且达到阈值的缓存
+     *
+     * @return 缓存的回答，未命中返回null
+     */
+    public String get(RagQuery query, float[] vector) {
+        Scope scope = scopes.get(scopeKey(query.getUserId(), query.getShopName(), query.getProductName()));
+        float[] unit = normalizeVector(vector);
+        if (scope == null || unit == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String variant = variantOf(query);
+        long expireBefore = expireBefore();
+        Entry best = null;
+        double bestSimilarity = similarityThreshold;
+        synchronized (scope) {
+            for (Entry entry : scope.entries) {
+                if (entry.createTime < expireBefore || !entry.variant.equals(variant)
+                        || entry.vector.length != unit.length) {
+                    continue;
+                }
+                double similarity = VectorMath.dot(entry.vector, unit);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = entry;
+                }
+            }
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        semanticHits.incrementAndGet();
+        log.debug("语义缓存命中, userId: {}, 相似度: {}", query.getUserId(), bestSimilarity);
+        return best.answer;
+    }
+
+    /**
+     * 写入缓存，只应写入大模型成功生成、且检索正常完成（未超时或降级）的回答
+     *
+     * @param query       问答请求
+     * @param vector      问题向量
+     * @param documentIds 参考问答的文档ID
+     * @param answer      回答
+     * @param version     生成回答前通过 {@link #version} 获取的版本号
+     */
+    public void put(RagQuery query, float[] vector, Collection<String> documentIds, String answer, long version) {
+        float[] unit = normalizeVector(vector);
+        if (unit == null || answer == null || answer.isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(variantOf(query), normalize(query.getQuestion()), unit,
+                new HashSet<>(documentIds), answer);
+        Scope scope = scopeOf(query);
+        synchronized (scope) {
+            if (scope.version != version) {
+                return;
+            }
+            scope.entries.addFirst(entry);
+            while (scope.entries.size() > Math.max(1, maxEntriesPerScope)) {
+                scope.entries.removeLast();
+            }
+        }
+        puts.incrementAndGet();
+    }
+
+    /**
+     * 问答数据写入后调用，使可能检索到这些文档的范围失效
+     *
+     * @param documents 写入的文档（包含userId、shopName、productName）
+     */
+    public void onDocumentsIndexed(Collection<Map<String, Object>> documents) {
+        if (!enabled || documents.isEmpty() || scopes.isEmpty()) {
+            return;
+        }
+        // 同一批写入通常属于同一产品，先去重
+        Set<String> seen = new HashSet<>();
+        for (Map<String, Object> document : documents) {
+            Object userId = document.get("userId");
+            if (!(userId instanceof Number)) {
+                invalidateAll();
+                return;
+            }
+            Object shopName = document.get("shopName");
+            Object productName = document.get("productName");
+            if (!seen.add(userId + "\u0001" + shopName + "\u0001" + productName)) {
+                continue;
+            }
+            long id = ((Number) userId).longValue();
+            for (Scope scope : scopes.values()) {
+                if (scope.userId == id && scope.covers(shopName, productName)) {
+                    scope.invalidate();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 问答数据删除后调用，使引用了该文档的缓存失效
+     */
+    public void onDocumentDeleted(Long userId, String id) {
+        if (!enabled) {
+            return;
+        }
+        for (Scope scope : scopes.values()) {
+            if (!Objects.equals(scope.userId, userId)) {
+                continue;
+            }
+            synchronized (scope) {
+                for (Entry entry : scope.entries) {
+                    if (entry.documentIds.contains(id)) {
+                        scope.invalidate();
+                        invalidations.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空全部缓存（删除索引或执行了无法确定范围的写操作时调用）
+     */
+    public void invalidateAll() {
+        for (Scope scope : scopes.values()) {
+            scope.invalidate();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * 定期清理过期缓存和空范围
+     */
+    @Scheduled(fixedRate = 600000) // 每10分钟执行一次
+    public void cleanupExpired() {
+        long expireBefore = expireBefore();
+        Iterator<Map.Entry<String, Scope>> iterator = scopes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Scope scope = iterator.next().getValue();
+            synchronized (scope) {
+                scope.entries.removeIf(entry -> entry.createTime < expireBefore);
+                if (scope.entries.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hits = exactHits.get() + semanticHits.get();
+        long total = hits + misses.get();
+        int entries = 0;
+        for (Scope scope : scopes.values()) {
+            synchronized (scope) {
+                entries += scope.entries.size();
+            }
+        }
+        stats.put("enabled", enabled);
+        stats.put("scopes", scopes.size());
+        stats.put("entries", entries);
+        stats.put("similarityThreshold", similarityThreshold);
+        stats.put("exactHits", exactHits.get());
+        stats.put("semanticHits", semanticHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hits / total);
+        stats.put("puts", puts.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private Scope scopeOf(RagQuery query) {
+        return scopes.computeIfAbsent(scopeKey(query.getUserId(), query.getShopName(), query.getProductName()),
+                k -> new Scope(query.getUserId(), query.getShopName(), query.getProductName()));
+    }
+
+    private static String scopeKey(Long userId, String shopName, String productName) {
+        return userId + "\u0001" + shopName + "\u0001" + productName;
+    }
+
+    /**
+     * 提示词变体：检索方式、向量字段和回答要求相同的请求才共享缓存
+     */
+    private static String variantOf(RagQuery query) {
+        return query.getMode() + "\u0001" + query.getVectorField() + "\u0001" + query.getInstruction();
+    }
+
+    private long expireBefore() {
+        return System.currentTimeMillis() - ttlMinutes * 60_000L;
+    }
+
+    /**
+     * 问题归一化：Unicode兼容归一化（全角转半角）、去除空白、转小写
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).replaceAll("\\s+", "").toLowerCase();
+    }
+
+    private static float[] normalizeVector(float[] vector) {
+        if (vector == null || vector.length == 0 || VectorMath.norm(vector) == 0f) {
+            return null;
+        }
+        return VectorMath.normalize(vector);
+    }
+}
@@ -14,7 +14,7 @@ import java.util.List;
 public interface UserDocumentService {
 
     /**
-     * 上传文档
+     * 上传文档（异步处理，返回的文档ID即处理任务ID）
      *
      * @param file 文件
      * @param request 文档请求对象
@@ -22,6 +22,13 @@ public interface UserDocumentService {
      */
     Long uploadDocument(MultipartFile file, UserDocumentRequest request);
 
+    /**
+     * 重试处理失败的文档（已生成的问答会被复用）
+     *
+     * @param id 文档ID
+     */
+    void retryDocument(Long id);
+
     /**
      * 更新文档信息
      *
@@ -0,0 +1,374 @@
+package com.example.kefu.service;
+
+import com.example.kefu.util.VectorMath;
+import com.example.kefu.util.VectorQuantizer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向量归一化
+ *
+ * 写入时把向量归一化为单位长度，余弦相似度即可用点积计算（dotProduct），省去每次打分时计算两个向量的模。
+ * 索引中所有向量都已归一化时，在索引映射的 _meta 中记录 vectors_normalized: true，查询据此切换为点积打分；
+ * 已有数据通过 {@link #startMigration} 用 scroll + bulk 重新归一化，完成后写入该标记。
+ */
+@Slf4j
+@Service
+public class VectorNormalizationService {
+
+    /**
+     * 索引映射 _meta 中的标记
+     */
+    public static final String META_KEY = "vectors_normalized";
+
+    /**
+     * 模与1的偏差在该范围内视为已归一化
+     */
+    private static final float NORM_TOLERANCE = 1e-4f;
+
+    private static final class CachedFlag {
+        private final boolean normalized;
+        private final long loadTime;
+
+        CachedFlag(boolean normalized) {
+            this.normalized = normalized;
+            this.loadTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 一次迁移的进度
+     */
+    private static final class Migration {
+        private final List<String> vectorFields;
+        private final String startTime = LocalDateTime.now().toString();
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong updated = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        /**
+         * 迁移期间文档被重新写入（版本冲突），新写入的向量已归一化，不需要更新
+         */
+        private final AtomicLong skipped = new AtomicLong();
+        private volatile boolean running = true;
+        private volatile String endTime;
+        private volatile String error;
+
+        Migration(List<String> vectorFields) {
+            this.vectorFields = vectorFields;
+        }
+    }
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    @Qualifier("vectorNormalizationExecutor")
+    private ThreadPoolTaskExecutor vectorNormalizationExecutor;
+
+    /**
+     * 查询时是否按索引标记切换为点积打分
+     */
+    @Value("${vector.normalization.dot-product-enabled:true}")
+    private boolean dotProductEnabled;
+
+    /**
+     * 索引标记的缓存时间，其他实例完成迁移后最迟在该时间后生效
+     */
+    @Value("${vector.normalization.meta-refresh-ms:60000}")
+    private long metaRefreshMillis;
+
+    @Value("${vector.normalization.batch-size:500}")
+    private int batchSize;
+
+    private final Map<String, CachedFlag> flags = new ConcurrentHashMap<>();
+
+    private final Map<String, Migration> migrations = new ConcurrentHashMap<>();
+
+    /**
+     * 索引中的向量是否都已归一化（可以用点积代替余弦相似度）
+     *
+     * @param indexName 索引名称
+     * @return 映射 _meta 中有标记时返回true；读取失败时返回false
+     */
+    public boolean isNormalized(String indexName) {
+        if (!dotProductEnabled) {
+            return false;
+        }
+        CachedFlag flag = flags.get(indexName);
+        if (flag != null && System.currentTimeMillis() - flag.loadTime < metaRefreshMillis) {
+            return flag.normalized;
+        }
+        try {
+            boolean normalized = readFlag(indexName);
+            flags.put(indexName, new CachedFlag(normalized));
+            return normalized;
+        } catch (IOException e) {
+            log.warn("读取索引向量归一化标记失败, 索引: {}, 原因: {}", indexName, e.getMessage());
+            return flag != null && flag.normalized;
+        }
+    }
+
+    /**
+     * 索引被创建或删除后调用，下次查询时重新读取标记
+     */
+    public void forget(String indexName) {
+        flags.remove(indexName);
+    }
+
+    /**
+     * 在索引映射的 _meta 中写入已归一化标记（会覆盖原有的 _meta）
+     */
+    public void markNormalized(String indexName) throws IOException {
+        Map<String, Object> meta = new HashMap<>();
+        meta.put(META_KEY, true);
+        Map<String, Object> body = new HashMap<>();
+        body.put("_meta", meta);
+        Request request = new Request("PUT", "/" + indexName + "/_mapping");
+        request.setJsonEntity(objectMapper.writeValueAsString(body));
+        client.getLowLevelClient().performRequest(request);
+        flags.put(indexName, new CachedFlag(true));
+    }
+
+    /**
+     * 在迁移线程池中把索引已有文档的向量重新归一化，全部成功后写入标记
+     *
+     * @param indexName    索引名称
+     * @param vectorFields 向量字段
+     * @return 同一索引已有迁移在执行时返回false
+     * @throws TaskRejectedException 迁移线程池队列已满
+     */
+    public boolean startMigration(String indexName, List<String> vectorFields) {
+        Migration migration = new Migration(new ArrayList<>(vectorFields));
+        Migration previous = migrations.get(indexName);
+        if (previous != null && previous.running) {
+            return false;
+        }
+        if (previous == null ? migrations.putIfAbsent(indexName, migration) != null
+                : !migrations.replace(indexName, previous, migration)) {
+            return false;
+        }
+
+        try {
+            vectorNormalizationExecutor.execute(() -> {
+                try {
+                    migrate(indexName, migration);
+                    if (migration.failed.get() == 0) {
+                        markNormalized(indexName);
+                    } else {
+                        migration.error = "部分文档更新失败，未写入归一化标记，可重新执行";
+                    }
+                    log.info("向量归一化迁移完成, 索引: {}, 扫描: {}, 更新: {}, 跳过: {}, 失败: {}", indexName,
+                            migration.scanned.get(), migration.updated.get(), migration.skipped.get(),
+                            migration.failed.get());
+                } catch (Exception e) {
+                    migration.error = e.getMessage();
+                    log.error("向量归一化迁移失败, 索引: {}", indexName, e);
+                } finally {
+                    queryResultCache.invalidate(indexName);
+                    migration.endTime = LocalDateTime.now().toString();
+                    migration.running = false;
+                }
+            });
+        } catch (TaskRejectedException e) {
+            // 撤销登记，保留上一次迁移的进度
+            if (previous == null) {
+                migrations.remove(indexName, migration);
+            } else {
+                migrations.replace(indexName, migration, previous);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 获取索引的归一化状态和最近一次迁移的进度
+     */
+    public Map<String, Object> getStatus(String indexName) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("indexName", indexName);
+        status.put("normalized", isNormalized(indexName));
+        Migration migration = migrations.get(indexName);
+        if (migration != null) {
+            Map<String, Object> progress = new LinkedHashMap<>();
+            progress.put("vectorFields", migration.vectorFields);
+            progress.put("running", migration.running);
+            progress.put("scanned", migration.scanned.get());
+            progress.put("updated", migration.updated.get());
+            progress.put("skipped", migration.skipped.get());
+            progress.put("failed", migration.failed.get());
+            progress.put("startTime", migration.startTime);
+            progress.put("endTime", migration.endTime);
+            progress.put("error", migration.error);
+            status.put("migration", progress);
+        }
+        return status;
+    }
+
+    /**
+     * 把文档中的向量归一化（原地修改），同时保存的int8量化向量按归一化后的向量重新生成
+     *
+     * @return 是否有向量被修改
+     */
+    private static boolean normalizeDocument(Map<String, Object> document, List<String> vectorFields) {
+        boolean changed = false;
+        for (String field : vectorFields) {
+            float[] vector = toVector(document.get(field));
+            if (vector == null) {
+                continue;
+            }
+            float norm = VectorMath.norm(vector);
+            // 零向量无法归一化，保持原样
+            if (norm == 0f || Math.abs(norm - 1f) <= NORM_TOLERANCE) {
+                continue;
+            }
+            float[] normalized = VectorMath.normalize(vector);
+            document.put(field, normalized);
+            if (document.containsKey(VectorQuantizer.codeField(field))) {
+                VectorQuantizer.putQuantized(document, field, normalized);
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void migrate(String indexName, Migration migration) throws IOException {
+        List<String> fetchFields = new ArrayList<>(migration.vectorFields);
+        for (String field : migration.vectorFields) {
+            fetchFields.add(VectorQuantizer.codeField(field));
+        }
+
+        SearchRequest request = new SearchRequest(indexName);
+        request.scroll(TimeValue.timeValueMinutes(5));
+        request.source(new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())
+                .size(batchSize)
+                .seqNoAndPrimaryTerm(true)
+                .fetchSource(fetchFields.toArray(new String[0]), null));
+
+        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
+        String scrollId = response.getScrollId();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                BulkRequest bulkRequest = new BulkRequest();
+                for (SearchHit hit : response.getHits().getHits()) {
+                    migration.scanned.incrementAndGet();
+                    Map<String, Object> source = hit.getSourceAsMap();
+                    if (normalizeDocument(source, migration.vectorFields)) {
+                        // 只更新向量相关字段；文档在scroll之后被重新写入时版本冲突，不会用旧向量覆盖新向量
+                        bulkRequest.add(new UpdateRequest(indexName, hit.getId())
+                                .doc(source)
+                                .setIfSeqNo(hit.getSeqNo())
+                                .setIfPrimaryTerm(hit.getPrimaryTerm()));
+                    }
+                }
+                if (bulkRequest.numberOfActions() > 0) {
+                    BulkResponse bulkResponse = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+                    for (BulkItemResponse item : bulkResponse.getItems()) {
+                        if (item.isFailed() && item.getFailure().getStatus() == RestStatus.CONFLICT) {
+                            migration.skipped.incrementAndGet();
+                        } else if (item.isFailed()) {
+                            migration.failed.incrementAndGet();
+                            log.warn("向量归一化更新失败, 索引: {}, ID: {}, 原因: {}", indexName, item.getId(),
+                                    item.getFailureMessage());
+                        } else {
+                            migration.updated.incrementAndGet();
+                        }
+                    }
+                }
+                SearchScrollRequest scrollRequest = new SearchScrollRequest(scrollId);
+                scrollRequest.scroll(TimeValue.timeValueMinutes(5));
+                response = client.scroll(scrollRequest, RequestOptions.DEFAULT);
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean readFlag(String indexName) throws IOException {
+        Request request = new Request("GET", "/" + indexName + "/_mapping");
+        Map<String, Object> body;
+        try (InputStream is = client.getLowLevelClient().performRequest(request).getEntity().getContent()) {
+            body = objectMapper.readValue(is, Map.class);
+        } catch (ResponseException e) {
+            if (e.getResponse().getStatusLine().getStatusCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+        // 响应以实际索引名为key（请求的可能是别名）
+        for (Object index : body.values()) {
+            Object mappings = index instanceof Map ? ((Map<String, Object>) index).get("mappings") : null;
+            Object meta = mappings instanceof Map ? ((Map<String, Object>) mappings).get("_meta") : null;
+            if (!(meta instanceof Map) || !Boolean.TRUE.equals(((Map<String, Object>) meta).get(META_KEY))) {
+                return false;
+            }
+        }
+        return !body.isEmpty();
+    }
+
+    /**
+     * 向量字段可能是float[]（本地写入）或数字列表（从ES读取）
+     */
+    private static float[] toVector(Object value) {
+        if (value instanceof float[]) {
+            return (float[]) value;
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            if (list.isEmpty()) {
+                return null;
+            }
+            float[] vector = new float[list.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) list.get(i)).floatValue();
+            }
+            return vector;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.kefu.service;
+
+import java.util.Map;
+
+/**
+ * 向量检索策略
+ * 负责把过滤条件和查询向量组装成最终的查询条件（DSL中的query部分）
+ */
+public interface VectorSearchStrategy {
+
+    /**
+     * 策略名称，对应配置项 elasticsearch.vector-search.strategy
+     *
+     * @return 策略名称
+     */
+    String getName();
+
+    /**
+     * 构建向量查询条件
+     *
+     * @param filterQuery 过滤条件（用户ID、店铺名称、产品名称等），作为前置过滤
+     * @param vector 查询向量
+     * @param vectorField 向量字段名
+     * @param size 需要返回的结果数量
+     * @param normalized 索引中的向量是否都已归一化（此时查询向量也已归一化，用点积代替余弦相似度打分）
+     * @return 查询条件
+     */
+    Map<String, Object> buildQuery(Map<String, Object> filterQuery, float[] vector, String vectorField, int size,
+                                   boolean normalized);
+
+    /**
+     * 打分脚本，分数区间为 [0, 2]：已归一化时 dotProduct + 1.0，否则 cosineSimilarity + 1.0
+     *
+     * @param vectorField 向量字段名
+     * @param normalized 索引中的向量是否都已归一化
+     * @return painless脚本，查询向量参数名为 query_vector
+     */
+    static String scoreScript(String vectorField, boolean normalized) {
+        return (normalized ? "dotProduct" : "cosineSimilarity") + "(params.query_vector, '" + vectorField + "') + 1.0";
+    }
+}
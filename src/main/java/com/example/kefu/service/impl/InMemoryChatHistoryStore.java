@@ -0,0 +1,136 @@
+package com.example.kefu.service.impl;
+
+import com.example.kefu.service.ChatHistoryManager;
+import com.example.kefu.service.ChatHistoryStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单机内存聊天历史存储
+ * 渲染好的历史文本会被缓存，直到下一次写入
+ */
+@Service
+@ConditionalOnProperty(name = "chat.history.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryChatHistoryStore implements ChatHistoryStore {
+
+    /**
+     * 聊天记录项
+     */
+    private static class ChatItem {
+        private final LocalDateTime timestamp;
+        private final String rendered;
+        private final int tokens;
+
+        ChatItem(String question, String answer) {
+            this.timestamp = LocalDateTime.now();
+            this.rendered = ChatHistoryManager.renderTurn(question, answer);
+            this.tokens = ChatHistoryManager.estimateTokens(rendered);
+        }
+    }
+
+    /**
+     * 单个聊天窗口的历史，所有操作在该对象上同步
+     */
+    private static class ChatSession {
+        private final Deque<ChatItem> items = new ArrayDeque<>();
+        private int tokens;
+        private String rendered = "";
+
+        synchronized void add(ChatItem item, int maxTurns, int maxTokens) {
+            items.addLast(item);
+            tokens += item.tokens;
+            // 超出轮数或token预算时移出最早的对话，至少保留最新一轮
+            while (items.size() > 1 && (items.size() > maxTurns || tokens > maxTokens)) {
+                tokens -= items.removeFirst().tokens;
+            }
+            rendered = null;
+        }
+
+        synchronized String render() {
+            if (rendered == null) {
+                if (items.isEmpty()) {
+                    rendered = "";
+                } else {
+                    StringBuilder sb = new StringBuilder(ChatHistoryManager.HISTORY_HEADER);
+                    for (ChatItem item : items) {
+                        sb.append(item.rendered);
+                    }
+                    rendered = sb.toString();
+                }
+            }
+            return rendered;
+        }
+
+        /**
+         * 移除过期记录
+         *
+         * @return 移除后是否为空
+         */
+        synchronized boolean removeExpired(LocalDateTime expirationTime) {
+            boolean removed = false;
+            while (!items.isEmpty() && items.peekFirst().timestamp.isBefore(expirationTime)) {
+                tokens -= items.removeFirst().tokens;
+                removed = true;
+            }
+            if (removed) {
+                rendered = null;
+            }
+            return items.isEmpty();
+        }
+    }
+
+    // 使用ConcurrentHashMap存储聊天历史，key为tableId，value为该tableId下的聊天记录
+    private final Map<String, ChatSession> chatHistory = new ConcurrentHashMap<>();
+
+    // 每个聊天窗口最多保留的对话轮数
+    @Value("${chat.history.max-turns:20}")
+    private int maxTurns;
+
+    // 每个聊天窗口历史的token预算（估算值）
+    @Value("${chat.history.max-tokens:2000}")
+    private int maxTokens;
+
+    @Override
+    public void append(String tableId, String question, String answer) {
+        ChatItem item = new ChatItem(question, answer);
+        // 在compute中写入，与过期清理互斥，不会写入已被移除的会话
+        chatHistory.compute(tableId, (k, session) -> {
+            ChatSession target = session != null ? session : new ChatSession();
+            target.add(item, maxTurns, maxTokens);
+            return target;
+        });
+    }
+
+    @Override
+    public String getHistory(String tableId) {
+        ChatSession session = chatHistory.get(tableId);
+        return session == null ? "" : session.render();
+    }
+
+    @Override
+    public void clear(String tableId) {
+        chatHistory.remove(tableId);
+    }
+
+    /**
+     * 定时清理过期的聊天记录
+     * 每小时执行一次
+     */
+    @Scheduled(fixedRate = 3600000) // 每小时执行一次
+    public void cleanupExpiredRecords() {
+        LocalDateTime expirationTime = LocalDateTime.now().minusHours(ChatHistoryManager.EXPIRATION_HOURS);
+
+        for (String tableId : chatHistory.keySet()) {
+            chatHistory.computeIfPresent(tableId,
+                    (k, session) -> session.removeExpired(expirationTime) ? null : session);
+        }
+    }
+}
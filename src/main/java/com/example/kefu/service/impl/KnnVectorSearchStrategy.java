@@ -0,0 +1,86 @@
+package com.example.kefu.service.impl;
+
+import com.example.kefu.service.VectorSearchStrategy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 近似向量检索策略（HNSW）
+ *
+ * 使用knn查询从向量索引中召回候选集，过滤条件作为knn的前置过滤；
+ * 再用script_score对候选集按余弦相似度（向量已归一化时为点积）精确重算分数，分数区间与精确检索保持一致（+1.0）。
+ * 需要Elasticsearch 8.12及以上版本，并且向量字段开启了 index: true。
+ *
+ * 生成：{
+ *   "script_score": {
+ *     "query": {
+ *       "knn": {
+ *         "field": "question_vector",
+ *         "query_vector": [...],
+ *         "num_candidates": 100,
+ *         "filter": {...}
+ *       }
+ *     },
+ *     "script": {
+ *       "source": "cosineSimilarity(params.query_vector, 'question_vector') + 1.0",
+ *       "params": {"query_vector": [...]}
+ *     }
+ *   }
+ * }
+ */
+@Component
+public class KnnVectorSearchStrategy implements VectorSearchStrategy {
+
+    public static final String NAME = "knn";
+
+    /**
+     * 候选集数量为返回数量的倍数
+     */
+    @Value("${elasticsearch.vector-search.candidate-multiplier:20}")
+    private int candidateMultiplier;
+
+    @Value("${elasticsearch.vector-search.min-candidates:100}")
+    private int minCandidates;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, Object> buildQuery(Map<String, Object> filterQuery, float[] vector, String vectorField, int size,
+                                          boolean normalized) {
+        // ES限制num_candidates不超过10000
+        int numCandidates = Math.min(10000, Math.max(minCandidates, size * candidateMultiplier));
+
+        Map<String, Object> knnValue = new HashMap<>();
+        knnValue.put("field", vectorField);
+        knnValue.put("query_vector", vector);
+        knnValue.put("num_candidates", numCandidates);
+        if (filterQuery != null) {
+            knnValue.put("filter", filterQuery);
+        }
+
+        Map<String, Object> knn = new HashMap<>();
+        knn.put("knn", knnValue);
+
+        // 对候选集精确重算余弦相似度
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_vector", vector);
+
+        Map<String, Object> script = new HashMap<>();
+        script.put("source", VectorSearchStrategy.scoreScript(vectorField, normalized));
+        script.put("params", params);
+
+        Map<String, Object> scriptScoreValue = new HashMap<>();
+        scriptScoreValue.put("query", knn);
+        scriptScoreValue.put("script", script);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("script_score", scriptScoreValue);
+        return result;
+    }
+}
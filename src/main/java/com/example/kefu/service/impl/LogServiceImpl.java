@@ -3,9 +3,9 @@ package com.example.kefu.service.impl;
 import com.example.kefu.model.log.ApiLogRecord;
 import com.example.kefu.model.log.ErrorLogRecord;
 import com.example.kefu.service.LogService;
+import com.example.kefu.service.LogShipper;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.RequestOptions;
@@ -36,6 +36,9 @@ public class LogServiceImpl implements LogService {
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private LogShipper logShipper;
+    
     @Value("${elasticsearch.indices.log}")
     private String logIndex;
     
@@ -44,26 +47,14 @@ public class LogServiceImpl implements LogService {
     
     @Override
     public void saveApiLog(ApiLogRecord apiLogRecord) {
-        try {
-            Map<String, Object> jsonMap = objectMapper.convertValue(apiLogRecord, Map.class);
-            IndexRequest indexRequest = new IndexRequest(logIndex)
-                    .source(jsonMap);
-            elasticsearchClient.index(indexRequest, RequestOptions.DEFAULT);
-        } catch (IOException e) {
-            log.error("保存API日志失败", e);
-        }
+        Map<String, Object> jsonMap = objectMapper.convertValue(apiLogRecord, Map.class);
+        logShipper.submit(logIndex, jsonMap);
     }
     
     @Override
     public void saveErrorLog(ErrorLogRecord errorLogRecord) {
-        try {
-            Map<String, Object> jsonMap = objectMapper.convertValue(errorLogRecord, Map.class);
-            IndexRequest indexRequest = new IndexRequest(errorLogIndex)
-                    .source(jsonMap);
-            elasticsearchClient.index(indexRequest, RequestOptions.DEFAULT);
-        } catch (IOException e) {
-            log.error("保存错误日志失败", e);
-        }
+        Map<String, Object> jsonMap = objectMapper.convertValue(errorLogRecord, Map.class);
+        logShipper.submit(errorLogIndex, jsonMap);
     }
     
     @Override
@@ -0,0 +1,87 @@
+package com.example.kefu.service.impl;
+
+import com.example.kefu.service.VectorSearchStrategy;
+import com.example.kefu.util.VectorQuantizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 量化向量两阶段检索策略
+ *
+ * 粗排：在int8量化向量字段（{向量字段}_int8）上用knn召回候选集，HNSW图和向量只有float版本的1/4大小；
+ * 精排：用script_score对候选集按原始float向量精确重算余弦相似度（向量已归一化时为点积），分数区间与精确检索保持一致（+1.0）。
+ * 需要Elasticsearch 8.12及以上版本，并且写入时开启了 vector.quantization.enabled（已有文档需要重新写入）。
+ *
+ * 生成：{
+ *   "script_score": {
+ *     "query": {
+ *       "knn": {
+ *         "field": "question_vector_int8",
+ *         "query_vector": [12, -127, ...],
+ *         "num_candidates": 200,
+ *         "filter": {...}
+ *       }
+ *     },
+ *     "script": {
+ *       "source": "cosineSimilarity(params.query_vector, 'question_vector') + 1.0",
+ *       "params": {"query_vector": [...]}
+ *     }
+ *   }
+ * }
+ */
+@Component
+public class QuantizedVectorSearchStrategy implements VectorSearchStrategy {
+
+    public static final String NAME = "int8";
+
+    /**
+     * 候选集数量为返回数量的倍数，量化有误差，默认比float近似检索多召回一倍
+     */
+    @Value("${elasticsearch.vector-search.quantized-candidate-multiplier:40}")
+    private int candidateMultiplier;
+
+    @Value("${elasticsearch.vector-search.min-candidates:100}")
+    private int minCandidates;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, Object> buildQuery(Map<String, Object> filterQuery, float[] vector, String vectorField, int size,
+                                          boolean normalized) {
+        // ES限制num_candidates不超过10000
+        int numCandidates = Math.min(10000, Math.max(minCandidates, size * candidateMultiplier));
+
+        Map<String, Object> knnValue = new HashMap<>();
+        knnValue.put("field", VectorQuantizer.codeField(vectorField));
+        knnValue.put("query_vector", VectorQuantizer.quantize(vector));
+        knnValue.put("num_candidates", numCandidates);
+        if (filterQuery != null) {
+            knnValue.put("filter", filterQuery);
+        }
+
+        Map<String, Object> knn = new HashMap<>();
+        knn.put("knn", knnValue);
+
+        // 对候选集按float向量精确重算余弦相似度
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_vector", vector);
+
+        Map<String, Object> script = new HashMap<>();
+        script.put("source", VectorSearchStrategy.scoreScript(vectorField, normalized));
+        script.put("params", params);
+
+        Map<String, Object> scriptScoreValue = new HashMap<>();
+        scriptScoreValue.put("query", knn);
+        scriptScoreValue.put("script", script);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("script_score", scriptScoreValue);
+        return result;
+    }
+}
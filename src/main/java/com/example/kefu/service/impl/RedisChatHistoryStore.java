@@ -0,0 +1,137 @@
+package com.example.kefu.service.impl;
+
+import com.example.kefu.service.ChatHistoryManager;
+import com.example.kefu.service.ChatHistoryStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis聊天历史存储，多个实例共享同一份对话上下文
+ *
+ * 每个聊天窗口对应一个list，元素为渲染好的一轮对话及其token数；
+ * 写入时裁剪到最大轮数并刷新key的过期时间，由Redis负责过期，不需要定时扫描。
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "chat.history.store", havingValue = "redis")
+public class RedisChatHistoryStore implements ChatHistoryStore {
+
+    /**
+     * list中保存的一轮对话
+     */
+    @Data
+    @NoArgsConstructor
+    static class StoredTurn {
+        private String rendered;
+        private int tokens;
+    }
+
+    /**
+     * 追加、裁剪、刷新过期时间在一个脚本中原子执行，避免中途失败留下未裁剪或不过期的list，
+     * 多个实例并发写入同一窗口时也不会交错
+     * KEYS[1]: list的key，ARGV[1]: 一轮对话，ARGV[2]: 最大轮数，ARGV[3]: 过期秒数
+     */
+    private static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('RPUSH', KEYS[1], ARGV[1]) "
+                    + "redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1) "
+                    + "redis.call('EXPIRE', KEYS[1], tonumber(ARGV[3])) "
+                    + "return 1",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${chat.history.redis.key-prefix:kefu:chat:history:}")
+    private String keyPrefix;
+
+    // 每个聊天窗口最多保留的对话轮数
+    @Value("${chat.history.max-turns:20}")
+    private int maxTurns;
+
+    // 每个聊天窗口历史的token预算（估算值）
+    @Value("${chat.history.max-tokens:2000}")
+    private int maxTokens;
+
+    @Override
+    public void append(String tableId, String question, String answer) {
+        String key = keyPrefix + tableId;
+        try {
+            StoredTurn turn = new StoredTurn();
+            turn.setRendered(ChatHistoryManager.renderTurn(question, answer));
+            turn.setTokens(ChatHistoryManager.estimateTokens(turn.getRendered()));
+
+            redisTemplate.execute(APPEND_SCRIPT, Collections.singletonList(key),
+                    objectMapper.writeValueAsString(turn),
+                    String.valueOf(maxTurns),
+                    String.valueOf(TimeUnit.HOURS.toSeconds(ChatHistoryManager.EXPIRATION_HOURS)));
+        } catch (Exception e) {
+            // 聊天历史不影响本次回答，写入失败只记录日志
+            log.warn("写入聊天历史失败, tableId: {}", tableId, e);
+        }
+    }
+
+    @Override
+    public String getHistory(String tableId) {
+        List<String> values;
+        try {
+            values = redisTemplate.opsForList().range(keyPrefix + tableId, 0, -1);
+        } catch (Exception e) {
+            log.warn("读取聊天历史失败, tableId: {}", tableId, e);
+            return "";
+        }
+        if (values == null || values.isEmpty()) {
+            return "";
+        }
+
+        // 从最新一轮往前取，直到超出token预算（至少保留最新一轮）
+        List<String> selected = new ArrayList<>();
+        int tokens = 0;
+        for (int i = values.size() - 1; i >= 0; i--) {
+            try {
+                StoredTurn turn = objectMapper.readValue(values.get(i), StoredTurn.class);
+                if (!selected.isEmpty() && tokens + turn.getTokens() > maxTokens) {
+                    break;
+                }
+                tokens += turn.getTokens();
+                selected.add(turn.getRendered());
+            } catch (Exception e) {
+                log.warn("解析聊天历史失败, tableId: {}", tableId, e);
+            }
+        }
+        if (selected.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder sb = new StringBuilder(ChatHistoryManager.HISTORY_HEADER);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            sb.append(selected.get(i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void clear(String tableId) {
+        try {
+            redisTemplate.delete(keyPrefix + tableId);
+        } catch (Exception e) {
+            log.warn("清除聊天历史失败, tableId: {}", tableId, e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.kefu.service.impl;
+
+import com.example.kefu.service.VectorSearchStrategy;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 精确向量检索策略（function_score + script_score）
+ * 对所有满足过滤条件的文档逐一计算余弦相似度（向量已归一化时为点积），结果精确但耗时随文档数量线性增长，
+ * 作为近似检索不可用时的兜底策略
+ */
+@Component
+public class ScriptScoreVectorSearchStrategy implements VectorSearchStrategy {
+
+    public static final String NAME = "script";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, Object> buildQuery(Map<String, Object> filterQuery, float[] vector, String vectorField, int size,
+                                          boolean normalized) {
+        // 构建script部分
+        Map<String, Object> script = new HashMap<>();
+        script.put("source", VectorSearchStrategy.scoreScript(vectorField, normalized));
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("query_vector", vector);
+        script.put("params", params);
+
+        // 构建script_score部分
+        Map<String, Object> scriptScore = new HashMap<>();
+        scriptScore.put("script", script);
+
+        // 构建function_score部分
+        Map<String, Object> functionScore = new HashMap<>();
+        functionScore.put("query", filterQuery);
+        functionScore.put("script_score", scriptScore);
+
+        // 构建最终查询
+        Map<String, Object> result = new HashMap<>();
+        result.put("function_score", functionScore);
+
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.kefu.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * 向量反序列化器
+ *
+ * 直接从JSON流中把 "embedding" 解析为 float[]，不经过 List&lt;Float&gt; 装箱。
+ * 同时支持 encoding_format=float（数字数组）和 encoding_format=base64（小端float32字节）。
+ */
+public class EmbeddingVectorDeserializer extends JsonDeserializer<float[]> {
+
+    /**
+     * 初始容量，与默认向量维度一致，常规情况下无需扩容
+     */
+    private static final int INITIAL_CAPACITY = 512;
+
+    @Override
+    public float[] deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+
+        if (token == JsonToken.VALUE_STRING) {
+            // base64编码的float32数组
+            byte[] bytes = p.getBinaryValue();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            float[] vector = new float[bytes.length / 4];
+            buffer.asFloatBuffer().get(vector);
+            return vector;
+        }
+
+        if (token != JsonToken.START_ARRAY) {
+            return (float[]) ctxt.handleUnexpectedToken(float[].class, p);
+        }
+
+        float[] vector = new float[INITIAL_CAPACITY];
+        int size = 0;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                return (float[]) ctxt.handleUnexpectedToken(float[].class, p);
+            }
+            if (size == vector.length) {
+                vector = Arrays.copyOf(vector, size * 2);
+            }
+            vector[size++] = p.getFloatValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+}
@@ -0,0 +1,481 @@
+package com.example.kefu.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW近似最近邻索引（余弦相似度）
+ *
+ * 向量写入前先归一化，相似度直接用点积计算；向量数据存放在堆外内存中，
+ * 从快照加载时直接映射快照文件，不再拷贝到堆内。
+ * 删除只做标记，被删除的节点仍参与图遍历，但不会出现在结果中；标记删除过多时由调用方用有效节点重建。
+ *
+ * 非线程安全，并发读写需要调用方加锁。
+ *
+ * 快照格式：
+ * 头部：magic(int) version(int) dims(int) m(int) count(int) entryPoint(int) maxLevel(int)
+ * 向量：float * dims * count
+ * 节点：level(int) deleted(byte)，之后每层 size(int) neighbor(int * size)
+ */
+public class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+
+    /**
+     * 搜索结果
+     */
+    public static class Hit {
+        private final int node;
+        private final float score;
+
+        Hit(int node, float score) {
+            this.node = node;
+            this.score = score;
+        }
+
+        public int getNode() {
+            return node;
+        }
+
+        /**
+         * 余弦相似度，区间[-1, 1]
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+
+    private static final Comparator<Hit> ASCENDING = (a, b) -> Float.compare(a.score, b.score);
+    private static final Comparator<Hit> DESCENDING = (a, b) -> Float.compare(b.score, a.score);
+
+    private final int dims;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private FloatBuffer vectors;
+    private int capacity;
+    private int count;
+    private int[] levels;
+    private BitSet deleted = new BitSet();
+
+    /**
+     * neighbors[node][level] 第0位为邻居数量，之后为邻居节点
+     */
+    private int[][][] neighbors;
+
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param dims 向量维度
+     * @param m 每个节点在上层的最大邻居数，第0层为2倍
+     * @param efConstruction 构建时的候选集大小
+     */
+    public HnswIndex(int dims, int m, int efConstruction) {
+        this.dims = dims;
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(efConstruction, this.m);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+        this.capacity = 0;
+        this.levels = new int[0];
+        this.neighbors = new int[0][][];
+        this.vectors = ByteBuffer.allocateDirect(0).asFloatBuffer();
+    }
+
+    public int getDims() {
+        return dims;
+    }
+
+    /**
+     * 节点总数（包含已标记删除的节点）
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 有效节点数
+     */
+    public int liveSize() {
+        return count - deleted.cardinality();
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    /**
+     * 读取节点的向量（归一化后的副本），用于重建索引
+     */
+    public float[] getVector(int node) {
+        float[] vector = new float[dims];
+        for (int i = 0; i < dims; i++) {
+            vector[i] = vectors.get(node * dims + i);
+        }
+        return vector;
+    }
+
+    /**
+     * 标记删除
+     */
+    public void delete(int node) {
+        if (node >= 0 && node < count) {
+            deleted.set(node);
+        }
+    }
+
+    /**
+     * 添加向量
+     *
+     * @param vector 向量（不会被修改）
+     * @return 节点编号
+     */
+    public int add(float[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("向量维度不一致，期望: " + dims + "，实际: " + vector.length);
+        }
+        ensureCapacity(count + 1);
+
+        int node = count;
+        float[] normalized = VectorMath.normalize(vector);
+        vectors.position(node * dims);
+        vectors.put(normalized);
+        vectors.position(0);
+
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        levels[node] = level;
+        neighbors[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            neighbors[node][l] = new int[maxNeighbors(l) + 1];
+        }
+        count++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedySearch(normalized, current, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Hit> candidates = searchLayer(normalized, current, efConstruction, l);
+            int maxM = maxNeighbors(l);
+            List<Hit> selected = candidates.subList(0, Math.min(maxM, candidates.size()));
+            for (Hit hit : selected) {
+                if (hit.node == node) {
+                    continue;
+                }
+                addNeighbor(node, hit.node, l);
+                addNeighbor(hit.node, node, l);
+            }
+            current = candidates.get(0).node;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 近似最近邻搜索
+     *
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param ef 搜索时的候选集大小
+     * @param filter 节点过滤条件（可为null）
+     * @return 按相似度降序排列的结果
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate filter) {
+        if (entryPoint < 0 || k <= 0) {
+            return Collections.emptyList();
+        }
+        float[] normalized = VectorMath.normalize(query);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedySearch(normalized, current, l);
+        }
+
+        List<Hit> candidates = searchLayer(normalized, current, Math.max(ef, k), 0);
+        List<Hit> result = new ArrayList<>(k);
+        for (Hit hit : candidates) {
+            if (!deleted.get(hit.node) && (filter == null || filter.test(hit.node))) {
+                result.add(hit);
+                if (result.size() == k) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 精确搜索：对满足条件的节点逐一计算相似度，用于过滤条件较严格、近似搜索召回不足的场景
+     */
+    public List<Hit> exactSearch(float[] query, int k, IntPredicate filter) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        float[] normalized = VectorMath.normalize(query);
+        PriorityQueue<Hit> top = new PriorityQueue<>(k + 1, ASCENDING);
+        for (int node = 0; node < count; node++) {
+            if (deleted.get(node) || (filter != null && !filter.test(node))) {
+                continue;
+            }
+            top.offer(new Hit(node, similarity(normalized, node)));
+            if (top.size() > k) {
+                top.poll();
+            }
+        }
+        List<Hit> result = new ArrayList<>(top);
+        result.sort(DESCENDING);
+        return result;
+    }
+
+    /**
+     * 写入快照文件（先写临时文件再替换）
+     */
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dims);
+            out.writeInt(m);
+            out.writeInt(count);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int i = 0; i < count * dims; i++) {
+                out.writeFloat(vectors.get(i));
+            }
+            for (int node = 0; node < count; node++) {
+                out.writeInt(levels[node]);
+                out.writeByte(deleted.get(node) ? 1 : 0);
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] list = neighbors[node][l];
+                    out.writeInt(list[0]);
+                    for (int i = 1; i <= list[0]; i++) {
+                        out.writeInt(list[i]);
+                    }
+                }
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("无法覆盖快照文件: " + file.getAbsolutePath());
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("无法写入快照文件: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 从快照文件加载，向量部分直接映射文件，不拷贝到堆内
+     */
+    public static HnswIndex load(File file, int efConstruction) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("快照文件格式不正确: " + file.getAbsolutePath());
+            }
+            int dims = header.getInt(8);
+            int m = header.getInt(12);
+            int count = header.getInt(16);
+
+            HnswIndex index = new HnswIndex(dims, m, efConstruction);
+            index.count = count;
+            index.capacity = count;
+            index.entryPoint = header.getInt(20);
+            index.maxLevel = header.getInt(24);
+
+            long vectorBytes = (long) count * dims * 4;
+            // 映射在通道关闭后依然有效
+            index.vectors = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, vectorBytes).asFloatBuffer();
+
+            index.levels = new int[count];
+            index.neighbors = new int[count][][];
+            channel.position(HEADER_SIZE + vectorBytes);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            for (int node = 0; node < count; node++) {
+                int level = in.readInt();
+                index.levels[node] = level;
+                if (in.readByte() != 0) {
+                    index.deleted.set(node);
+                }
+                index.neighbors[node] = new int[level + 1][];
+                for (int l = 0; l <= level; l++) {
+                    int size = in.readInt();
+                    int[] list = new int[index.maxNeighbors(l) + 1];
+                    list[0] = size;
+                    for (int i = 1; i <= size; i++) {
+                        list[i] = in.readInt();
+                    }
+                    index.neighbors[node][l] = list;
+                }
+            }
+            return index;
+        }
+    }
+
+    private int maxNeighbors(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(required, Math.max(16, capacity * 2));
+        FloatBuffer grown = ByteBuffer.allocateDirect(newCapacity * dims * 4).asFloatBuffer();
+        FloatBuffer old = vectors.duplicate();
+        old.position(0).limit(count * dims);
+        grown.put(old);
+        grown.position(0);
+        vectors = grown;
+        levels = Arrays.copyOf(levels, newCapacity);
+        neighbors = Arrays.copyOf(neighbors, newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * 在指定层贪心查找最近节点
+     */
+    private int greedySearch(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] list = neighbors[current][level];
+            for (int i = 1; i <= list[0]; i++) {
+                float score = similarity(query, list[i]);
+                if (score > best) {
+                    best = score;
+                    current = list[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在指定层做最佳优先搜索
+     *
+     * @return 按相似度降序排列的候选集
+     */
+    private List<Hit> searchLayer(float[] query, int start, int ef, int level) {
+        BitSet visited = new BitSet(count);
+        PriorityQueue<Hit> candidates = new PriorityQueue<>(DESCENDING);
+        PriorityQueue<Hit> results = new PriorityQueue<>(ASCENDING);
+
+        Hit first = new Hit(start, similarity(query, start));
+        visited.set(start);
+        candidates.offer(first);
+        results.offer(first);
+
+        while (!candidates.isEmpty()) {
+            Hit current = candidates.poll();
+            if (results.size() >= ef && current.score < results.peek().score) {
+                break;
+            }
+            int[] list = neighbors[current.node][level];
+            for (int i = 1; i <= list[0]; i++) {
+                int neighbor = list[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float score = similarity(query, neighbor);
+                if (results.size() < ef || score > results.peek().score) {
+                    Hit hit = new Hit(neighbor, score);
+                    candidates.offer(hit);
+                    results.offer(hit);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Hit> sorted = new ArrayList<>(results);
+        sorted.sort(DESCENDING);
+        return sorted;
+    }
+
+    /**
+     * 添加单向连接，超出上限时只保留与该节点最相似的邻居
+     */
+    private void addNeighbor(int node, int neighbor, int level) {
+        int[] list = neighbors[node][level];
+        int size = list[0];
+        for (int i = 1; i <= size; i++) {
+            if (list[i] == neighbor) {
+                return;
+            }
+        }
+        int maxM = maxNeighbors(level);
+        if (size < maxM) {
+            list[size + 1] = neighbor;
+            list[0] = size + 1;
+            return;
+        }
+
+        // 已满：替换相似度最低的邻居
+        int worstIndex = -1;
+        float worstScore = nodeSimilarity(node, neighbor);
+        for (int i = 1; i <= size; i++) {
+            float score = nodeSimilarity(node, list[i]);
+            if (score < worstScore) {
+                worstScore = score;
+                worstIndex = i;
+            }
+        }
+        if (worstIndex > 0) {
+            list[worstIndex] = neighbor;
+        }
+    }
+
+    private float similarity(float[] query, int node) {
+        return VectorMath.dot(query, vectors, node * dims);
+    }
+
+    private float nodeSimilarity(int a, int b) {
+        return VectorMath.dot(vectors, a * dims, b * dims, dims);
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.kefu.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形缓冲区（多生产者、单消费者）
+ *
+ * 每个槽位带一个序号：序号等于写入位置时槽位可写，等于写入位置+1时槽位可读。
+ * 生产者通过CAS抢占写入位置，缓冲区满时offer直接返回false，不阻塞调用线程；
+ * 消费者只有一个，读取位置不需要CAS。
+ */
+public class LogRingBuffer<T> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<T> slots;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long head;
+
+    /**
+     * @param requestedCapacity 容量，向上取整为2的幂
+     */
+    public LogRingBuffer(int requestedCapacity) {
+        int cap = 1;
+        while (cap < requestedCapacity) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.slots = new AtomicReferenceArray<>(cap);
+        this.sequences = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 写入一个元素
+     *
+     * @return 缓冲区已满时返回false
+     */
+    public boolean offer(T item) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, item);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // diff > 0：其他生产者已抢占该位置，重试
+        }
+    }
+
+    /**
+     * 取出最多maxItems个元素，只能由消费者线程调用
+     *
+     * @return 取出的元素数量
+     */
+    public int drainTo(List<T> target, int maxItems) {
+        int count = 0;
+        long pos = head;
+        while (count < maxItems) {
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                break;
+            }
+            target.add(slots.get(index));
+            slots.lazySet(index, null);
+            sequences.set(index, pos + capacity);
+            pos++;
+            count++;
+        }
+        head = pos;
+        return count;
+    }
+
+    /**
+     * 当前元素数量（近似值）
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
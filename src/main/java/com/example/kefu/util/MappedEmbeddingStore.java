@@ -0,0 +1,189 @@
+package com.example.kefu.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射文件的向量存储
+ *
+ * 文件由固定大小的槽位组成，按key哈希定位到一个包含 {@link #WAYS} 个槽位的桶，
+ * 桶满时覆盖其中一个槽位（即淘汰）。进程重启后直接映射原文件即可复用已缓存的向量。
+ *
+ * 文件格式：
+ * 头部(32字节)：magic(int) version(int) slotCount(int) dims(int) 预留
+ * 槽位：keyHi(long) keyLo(long) length(int) 预留(int) vector(float * dims)
+ */
+@Slf4j
+public class MappedEmbeddingStore implements Closeable {
+
+    private static final int MAGIC = 0x4B454655;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_HEADER_SIZE = 24;
+
+    /**
+     * 每个桶的槽位数
+     */
+    private static final int WAYS = 4;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int dims;
+    private final int slotSize;
+
+    /**
+     * 分段锁，按桶加锁，避免读到写了一半的槽位
+     */
+    private final Object[] locks = new Object[64];
+
+    /**
+     * 打开或创建存储文件，已有文件的槽位数或维度不一致时会重建
+     *
+     * @param path 文件路径
+     * @param slotCount 槽位数（会向上取整为2的幂）
+     * @param dims 向量维度
+     */
+    public MappedEmbeddingStore(String path, int slotCount, int dims) throws IOException {
+        this.slotCount = tableSizeFor(Math.max(slotCount, WAYS));
+        this.dims = dims;
+        this.slotSize = SLOT_HEADER_SIZE + dims * 4;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+        File target = new File(path);
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        long size = HEADER_SIZE + (long) this.slotCount * slotSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("向量缓存文件过大，请减少槽位数: " + slotCount);
+        }
+
+        this.file = new RandomAccessFile(target, "rw");
+        boolean reset = file.length() != size;
+        file.setLength(size);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (reset || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != this.slotCount || buffer.getInt(12) != dims) {
+            log.info("初始化向量缓存文件: {}, 槽位数: {}, 维度: {}", target.getAbsolutePath(), this.slotCount, dims);
+            for (int i = 0; i < this.slotCount; i++) {
+                buffer.putInt(slotOffset(i) + 16, 0);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, this.slotCount);
+            buffer.putInt(12, dims);
+        }
+    }
+
+    /**
+     * 读取向量
+     *
+     * @return 向量，不存在时返回null
+     */
+    public float[] get(long keyHi, long keyLo) {
+        int bucket = bucketOf(keyHi, keyLo);
+        synchronized (lockOf(bucket)) {
+            for (int way = 0; way < WAYS; way++) {
+                int offset = slotOffset(bucket * WAYS + way);
+                if (buffer.getInt(offset + 16) == dims
+                        && buffer.getLong(offset) == keyHi && buffer.getLong(offset + 8) == keyLo) {
+                    float[] vector = new float[dims];
+                    int base = offset + SLOT_HEADER_SIZE;
+                    for (int i = 0; i < dims; i++) {
+                        vector[i] = buffer.getFloat(base + i * 4);
+                    }
+                    return vector;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 写入向量
+     *
+     * @return 是否淘汰了桶内已有的其他向量
+     */
+    public boolean put(long keyHi, long keyLo, float[] vector) {
+        if (vector.length != dims) {
+            return false;
+        }
+        int bucket = bucketOf(keyHi, keyLo);
+        synchronized (lockOf(bucket)) {
+            int target = -1;
+            for (int way = 0; way < WAYS; way++) {
+                int offset = slotOffset(bucket * WAYS + way);
+                int length = buffer.getInt(offset + 16);
+                if (length == 0 || (buffer.getLong(offset) == keyHi && buffer.getLong(offset + 8) == keyLo)) {
+                    target = way;
+                    break;
+                }
+            }
+            boolean evicted = false;
+            if (target < 0) {
+                // 桶已满，按key选择一个槽位覆盖，近似随机淘汰
+                target = (int) ((keyLo >>> 32) & (WAYS - 1));
+                evicted = true;
+            }
+
+            int offset = slotOffset(bucket * WAYS + target);
+            // 先把长度置0再写数据，最后写回长度，进程中途退出时不会留下半截向量
+            buffer.putInt(offset + 16, 0);
+            int base = offset + SLOT_HEADER_SIZE;
+            for (int i = 0; i < dims; i++) {
+                buffer.putFloat(base + i * 4, vector[i]);
+            }
+            buffer.putLong(offset, keyHi);
+            buffer.putLong(offset + 8, keyLo);
+            buffer.putInt(offset + 16, dims);
+            return evicted;
+        }
+    }
+
+    public int getDims() {
+        return dims;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        file.close();
+    }
+
+    private int bucketOf(long keyHi, long keyLo) {
+        long mixed = keyHi ^ (keyLo * 0x9E3779B97F4A7C15L);
+        return (int) ((mixed ^ (mixed >>> 31)) & (slotCount / WAYS - 1));
+    }
+
+    private Object lockOf(int bucket) {
+        return locks[bucket & (locks.length - 1)];
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
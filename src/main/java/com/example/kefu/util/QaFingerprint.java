@@ -0,0 +1,58 @@
+package com.example.kefu.util;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 问答指纹
+ *
+ * 问答对指纹：归一化（去空白、英文小写）后的问题 + 答案的MD5，内容不变则指纹不变，用于增量写入索引；
+ * 属性块指纹：一块产品属性（属性名 + 属性值）的MD5，属性不变则不必重新生成该块的问答。
+ */
+public final class QaFingerprint {
+
+    private QaFingerprint() {
+    }
+
+    /**
+     * 问答对指纹
+     */
+    public static String of(String question, String answer) {
+        return md5(normalize(question) + '\u0001' + normalize(answer));
+    }
+
+    /**
+     * 属性块指纹，与属性顺序有关
+     */
+    public static String ofAttributes(Map<String, String> attributes) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            sb.append(normalize(entry.getKey())).append('\u0001')
+                    .append(normalize(entry.getValue())).append('\u0002');
+        }
+        return md5(sb.toString());
+    }
+
+    /**
+     * 归一化：去掉空白，英文转小写（保留标点，避免 12.5 与 125 等内容变化被忽略）
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String md5(String text) {
+        return DigestUtils.md5DigestAsHex(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.kefu.util;
+
+import com.example.kefu.model.response.SearchHits;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多路检索结果融合
+ *
+ * RRF（Reciprocal Rank Fusion）：score = Σ weight / (k + rank)，只依赖排名，不受各路分数区间影响；
+ * 加权：各路分数先按本路最小/最大值归一化到 [0, 1]，再按权重求和。
+ * 同一文档在多路中出现时分数累加，源数据取第一次出现的记录。
+ */
+public final class RankFusion {
+
+    /**
+     * RRF 默认常数
+     */
+    public static final int DEFAULT_RRF_K = 60;
+
+    private RankFusion() {
+    }
+
+    /**
+     * RRF融合
+     *
+     * @param legs    各路命中结果（按分数降序）
+     * @param weights 各路权重，与legs一一对应
+     * @param k       RRF常数，越大排名靠后的文档相对权重越高
+     * @param size    返回数量
+     * @return 按融合分数降序排列的命中结果
+     */
+    public static SearchHits rrf(List<SearchHits> legs, double[] weights, int k, int size) {
+        Map<String, SearchHits.Hit> fused = new LinkedHashMap<>();
+        for (int leg = 0; leg < legs.size(); leg++) {
+            List<SearchHits.Hit> hits = legs.get(leg).getHits();
+            for (int rank = 0; rank < hits.size(); rank++) {
+                accumulate(fused, hits.get(rank), weights[leg] / (k + rank + 1));
+            }
+        }
+        return toResult(legs, fused, size);
+    }
+
+    /**
+     * 归一化加权融合
+     *
+     * @param legs    各路命中结果
+     * @param weights 各路权重，与legs一一对应
+     * @param size    返回数量
+     * @return 按融合分数降序排列的命中结果
+     */
+    public static SearchHits weighted(List<SearchHits> legs, double[] weights, int size) {
+        Map<String, SearchHits.Hit> fused = new LinkedHashMap<>();
+        for (int leg = 0; leg < legs.size(); leg++) {
+            List<SearchHits.Hit> hits = legs.get(leg).getHits();
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (SearchHits.Hit hit : hits) {
+                min = Math.min(min, hit.getScore());
+                max = Math.max(max, hit.getScore());
+            }
+            for (SearchHits.Hit hit : hits) {
+                // 只有一条或分数全部相同时视为满分
+                double normalized = max > min ? (hit.getScore() - min) / (max - min) : 1.0;
+                accumulate(fused, hit, weights[leg] * normalized);
+            }
+        }
+        return toResult(legs, fused, size);
+    }
+
+    private static void accumulate(Map<String, SearchHits.Hit> fused, SearchHits.Hit hit, double score) {
+        SearchHits.Hit existing = fused.get(hit.getId());
+        if (existing == null) {
+            fused.put(hit.getId(), new SearchHits.Hit(hit.getId(), score, hit.getSource()));
+        } else {
+            existing.setScore(existing.getScore() + score);
+        }
+    }
+
+    private static SearchHits toResult(List<SearchHits> legs, Map<String, SearchHits.Hit> fused, int size) {
+        List<SearchHits.Hit> hits = new ArrayList<>(fused.values());
+        // 稳定排序，分数相同时保持先出现的顺序
+        hits.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        if (hits.size() > size) {
+            hits = new ArrayList<>(hits.subList(0, size));
+        }
+        long total = 0;
+        for (SearchHits leg : legs) {
+            total = Math.max(total, leg.getTotal());
+        }
+        return new SearchHits(total, hits.isEmpty() ? null : hits.get(0).getScore(), hits);
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.kefu.util;
+
+import com.example.kefu.model.response.SearchHits;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * _search / _msearch 响应流式解析
+ *
+ * 直接从响应流读取命中记录，不构建整个响应的Map：
+ * 分数不高于阈值的命中跳过其 _source，未选取的源数据字段和向量字段
+ * （*_vector 及其量化字段 *_vector_int8、*_vector_scale）不解析。
+ */
+public final class SearchResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String VECTOR_SUFFIX = "_vector";
+
+    private SearchResponseParser() {
+    }
+
+    /**
+     * 解析 _search 响应
+     *
+     * @param in       响应流（由调用方关闭）
+     * @param minScore 分数阈值，只保留分数大于该值的命中；不过滤时传 Double.NEGATIVE_INFINITY
+     * @param fields   选取的源数据字段，为null时选取除向量字段外的所有字段
+     * @return 命中结果
+     */
+    public static SearchHits parse(InputStream in, double minScore, Collection<String> fields) throws IOException {
+        Set<String> fieldSet = fields != null ? new HashSet<>(fields) : null;
+        SearchHits result = new SearchHits();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("无效的查询响应");
+            }
+            parseResponse(parser, result, minScore, fieldSet);
+        }
+        return result;
+    }
+
+    /**
+     * 解析 _msearch 响应，responses 中的每一项按 _search 响应解析
+     *
+     * @param in        响应流（由调用方关闭）
+     * @param minScores 每一项的分数阈值
+     * @param fields    每一项选取的源数据字段，元素为null时选取除向量字段外的所有字段
+     * @param errors    输出参数，执行失败的项写入错误原因，长度不小于查询项数量
+     * @return 每一项的命中结果，与请求顺序一致，执行失败的项为null
+     */
+    public static List<SearchHits> parseMulti(InputStream in, double[] minScores, List<? extends Collection<String>> fields,
+                                              String[] errors) throws IOException {
+        List<SearchHits> results = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("无效的查询响应");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!"responses".equals(name) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    int i = results.size();
+                    if (i >= minScores.length) {
+                        throw new IOException("查询响应数量与请求不一致");
+                    }
+                    Set<String> fieldSet = fields.get(i) != null ? new HashSet<>(fields.get(i)) : null;
+                    SearchHits result = new SearchHits();
+                    String error = parseResponse(parser, result, minScores[i], fieldSet);
+                    if (error != null) {
+                        errors[i] = error;
+                        result = null;
+                    }
+                    results.add(result);
+                }
+            }
+        }
+        if (results.size() != minScores.length) {
+            throw new IOException("查询响应数量与请求不一致");
+        }
+        return results;
+    }
+
+    /**
+     * 解析单个查询响应对象的字段
+     *
+     * @return 查询失败时返回错误原因，否则返回null
+     */
+    private static String parseResponse(JsonParser parser, SearchHits result, double minScore,
+                                        Set<String> fields) throws IOException {
+        String error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("hits".equals(name)) {
+                parseHits(parser, result, minScore, fields);
+            } else if ("error".equals(name)) {
+                Object value = readValue(parser);
+                error = value instanceof Map && ((Map<?, ?>) value).get("reason") != null
+                        ? ((Map<?, ?>) value).get("type") + ": " + ((Map<?, ?>) value).get("reason")
+                        : String.valueOf(value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return error;
+    }
+
+    private static void parseHits(JsonParser parser, SearchHits result, double minScore,
+                                  Set<String> fields) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("total".equals(name)) {
+                result.setTotal(parseTotal(parser, token));
+            } else if ("max_score".equals(name)) {
+                result.setMaxScore(token == JsonToken.VALUE_NULL ? null : parser.getDoubleValue());
+            } else if ("hits".equals(name) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    SearchHits.Hit hit = parseHit(parser, minScore, fields);
+                    if (hit != null) {
+                        result.getHits().add(hit);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 7.x为 {"value": n, "relation": "eq"}，6.x为数字
+     */
+    private static long parseTotal(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            return token.isNumeric() ? parser.getLongValue() : 0;
+        }
+        long total = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("value".equals(name)) {
+                total = parser.getLongValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 解析单条命中，分数不高于阈值时返回null
+     */
+    private static SearchHits.Hit parseHit(JsonParser parser, double minScore, Set<String> fields) throws IOException {
+        String id = null;
+        double score = Double.NaN;
+        boolean scoreSeen = false;
+        Map<String, Object> source = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("_id".equals(name)) {
+                id = parser.getText();
+            } else if ("_score".equals(name)) {
+                score = token == JsonToken.VALUE_NULL ? Double.NaN : parser.getDoubleValue();
+                scoreSeen = true;
+            } else if ("_source".equals(name) && token == JsonToken.START_OBJECT
+                    && !(scoreSeen && !accept(score, minScore))) {
+                source = parseSource(parser, fields);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!accept(score, minScore)) {
+            return null;
+        }
+        return new SearchHits.Hit(id, score, source != null ? source : new LinkedHashMap<>());
+    }
+
+    /**
+     * 不过滤时保留所有命中（包括按字段排序、没有分数的命中）
+     */
+    private static boolean accept(double score, double minScore) {
+        return minScore == Double.NEGATIVE_INFINITY || score > minScore;
+    }
+
+    /**
+     * 向量字段及 {@link VectorQuantizer} 写入的量化码和缩放因子
+     */
+    private static boolean isVectorField(String name) {
+        return name.endsWith(VECTOR_SUFFIX)
+                || name.endsWith(VECTOR_SUFFIX + VectorQuantizer.CODE_SUFFIX)
+                || name.endsWith(VECTOR_SUFFIX + VectorQuantizer.SCALE_SUFFIX);
+    }
+
+    private static Map<String, Object> parseSource(JsonParser parser, Set<String> fields) throws IOException {
+        Map<String, Object> source = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            boolean selected = fields != null ? fields.contains(name) : !isVectorField(name);
+            if (selected) {
+                source.put(name, readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return source;
+    }
+
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    map.put(name, readValue(parser));
+                }
+                return map;
+            }
+            case START_ARRAY: {
+                List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(readValue(parser));
+                }
+                return list;
+            }
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.kefu.util;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式表格读取（.xlsx / .xls）
+ *
+ * 基于POI的事件模型逐行回调，不构建整个工作簿的对象模型，内存占用与文件大小无关
+ * （.xlsx只额外保存共享字符串表）。输入流先写入临时文件，避免解压时把整个文件读入内存。
+ * 依次读取所有工作表，单元格按显示格式转为字符串，公式取缓存的计算结果。
+ */
+public final class SpreadsheetReader {
+
+    /**
+     * 行回调
+     */
+    public interface RowHandler {
+        /**
+         * @param sheetIndex 工作表序号（从0开始）
+         * @param sheetName  工作表名称
+         * @param rowNum     行号（从0开始）
+         * @param cells      单元格值，下标为列号，缺失的单元格为null
+         */
+        void onRow(int sheetIndex, String sheetName, int rowNum, List<String> cells);
+    }
+
+    private SpreadsheetReader() {
+    }
+
+    /**
+     * 读取所有工作表的前两列作为属性名和属性值（产品信息表格式），
+     * 属性名或属性值缺失、属性名为空的行被跳过，同名属性以后出现的为准
+     *
+     * @param inputStream 表格文件输入流（不会被关闭）
+     * @return 属性名 -> 属性值，保持表格中的顺序
+     */
+    public static Map<String, String> readKeyValues(InputStream inputStream) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        read(inputStream, (sheetIndex, sheetName, rowNum, cells) -> {
+            if (cells.size() < 2 || cells.get(0) == null || cells.get(1) == null) {
+                return;
+            }
+            String key = cells.get(0);
+            if (!key.trim().isEmpty()) {
+                result.put(key, cells.get(1));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 读取表格，格式根据文件头自动识别
+     *
+     * @param inputStream 表格文件输入流（不会被关闭）
+     * @param handler     行回调
+     */
+    public static void read(InputStream inputStream, RowHandler handler) throws IOException {
+        File tempFile = Files.createTempFile("spreadsheet-", ".tmp").toFile();
+        try {
+            Files.copy(inputStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            read(tempFile, handler);
+        } finally {
+            if (!tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * 读取表格文件，格式根据文件头自动识别
+     *
+     * @param file    表格文件
+     * @param handler 行回调
+     */
+    public static void read(File file, RowHandler handler) throws IOException {
+        FileMagic magic;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            magic = FileMagic.valueOf(in);
+        }
+        if (magic == FileMagic.OOXML) {
+            readXlsx(file, handler);
+        } else if (magic == FileMagic.OLE2) {
+            readXls(file, handler);
+        } else {
+            throw new IOException("不支持的表格格式: " + magic);
+        }
+    }
+
+    private static void readXlsx(File file, RowHandler handler) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            DataFormatter formatter = new DataFormatter();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int sheetIndex = 0;
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    XlsxSheetHandler sheetHandler = new XlsxSheetHandler(sheetIndex, sheets.getSheetName(), handler);
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, sheetHandler, formatter, false));
+                    parser.parse(new InputSource(sheet));
+                }
+                sheetIndex++;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("解析xlsx失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * xlsx工作表回调，按行收集单元格
+     */
+    private static class XlsxSheetHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final int sheetIndex;
+        private final String sheetName;
+        private final RowHandler handler;
+        private final List<String> cells = new ArrayList<>();
+
+        XlsxSheetHandler(int sheetIndex, String sheetName, RowHandler handler) {
+            this.sheetIndex = sheetIndex;
+            this.sheetName = sheetName;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (!cells.isEmpty()) {
+                handler.onRow(sheetIndex, sheetName, rowNum, new ArrayList<>(cells));
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            if (cellReference == null) {
+                return;
+            }
+            setCell(cells, new CellAddress(cellReference).getColumn(), formattedValue);
+        }
+    }
+
+    private static void readXls(File file, RowHandler handler) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            XlsListener listener = new XlsListener(handler);
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(listener.formatListener);
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+            listener.flushRow();
+        }
+    }
+
+    /**
+     * xls记录回调，按行收集单元格
+     */
+    private static class XlsListener implements HSSFListener {
+        private final RowHandler handler;
+        private final FormatTrackingHSSFListener formatListener;
+        private final List<String> sheetNames = new ArrayList<>();
+        private final List<String> cells = new ArrayList<>();
+        private SSTRecord sst;
+        private int sheetIndex = -1;
+        private int currentRow = -1;
+        private int pendingFormulaColumn = -1;
+
+        XlsListener(RowHandler handler) {
+            this.handler = handler;
+            this.formatListener = new FormatTrackingHSSFListener(this);
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record.getSid()) {
+                case BoundSheetRecord.sid:
+                    sheetNames.add(((BoundSheetRecord) record).getSheetname());
+                    break;
+                case BOFRecord.sid:
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                        flushRow();
+                        sheetIndex++;
+                    }
+                    break;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    break;
+                case LabelSSTRecord.sid: {
+                    LabelSSTRecord label = (LabelSSTRecord) record;
+                    String value = sst != null ? sst.getString(label.getSSTIndex()).getString() : "";
+                    addCell(label.getRow(), label.getColumn(), value);
+                    break;
+                }
+                case LabelRecord.sid: {
+                    LabelRecord label = (LabelRecord) record;
+                    addCell(label.getRow(), label.getColumn(), label.getValue());
+                    break;
+                }
+                case NumberRecord.sid: {
+                    NumberRecord number = (NumberRecord) record;
+                    addCell(number.getRow(), number.getColumn(), formatListener.formatNumberDateCell(number));
+                    break;
+                }
+                case BoolErrRecord.sid: {
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    if (boolErr.isBoolean()) {
+                        addCell(boolErr.getRow(), boolErr.getColumn(), String.valueOf(boolErr.getBooleanValue()));
+                    }
+                    break;
+                }
+                case FormulaRecord.sid: {
+                    FormulaRecord formula = (FormulaRecord) record;
+                    if (formula.hasCachedResultString()) {
+                        // 字符串结果在随后的StringRecord中
+                        startRow(formula.getRow());
+                        pendingFormulaColumn = formula.getColumn();
+                    } else {
+                        addCell(formula.getRow(), formula.getColumn(), formatListener.formatNumberDateCell(formula));
+                    }
+                    break;
+                }
+                case StringRecord.sid:
+                    if (pendingFormulaColumn >= 0) {
+                        setCell(cells, pendingFormulaColumn, ((StringRecord) record).getString());
+                        pendingFormulaColumn = -1;
+                    }
+                    break;
+                case EOFRecord.sid:
+                    flushRow();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addCell(int row, int column, String value) {
+            startRow(row);
+            setCell(cells, column, value);
+        }
+
+        private void startRow(int row) {
+            if (row != currentRow) {
+                flushRow();
+                currentRow = row;
+            }
+        }
+
+        void flushRow() {
+            if (currentRow >= 0 && !cells.isEmpty() && sheetIndex >= 0) {
+                String sheetName = sheetIndex < sheetNames.size() ? sheetNames.get(sheetIndex) : "Sheet" + sheetIndex;
+                handler.onRow(sheetIndex, sheetName, currentRow, new ArrayList<>(cells));
+            }
+            cells.clear();
+            currentRow = -1;
+        }
+    }
+
+    private static void setCell(List<String> cells, int column, String value) {
+        while (cells.size() <= column) {
+            cells.add(null);
+        }
+        cells.set(column, value);
+    }
+}
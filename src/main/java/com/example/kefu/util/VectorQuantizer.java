@@ -0,0 +1,91 @@
+package com.example.kefu.util;
+
+import java.util.Map;
+
+/**
+ * 向量int8标量量化
+ *
+ * 向量先归一化为单位长度，再按该向量分量的最大绝对值线性映射到 [-127, 127]；
+ * 缩放系数（scale）与编码一起保存，单位化后的向量 ≈ 编码 * scale。
+ * 编码之间的余弦相似度近似于原向量的余弦相似度，用于粗排，精排仍使用原始float向量。
+ *
+ * ES文档中的字段：{向量字段}_int8（byte类型的dense_vector）、{向量字段}_scale（float）
+ */
+public final class VectorQuantizer {
+
+    public static final String CODE_SUFFIX = "_int8";
+
+    public static final String SCALE_SUFFIX = "_scale";
+
+    private static final int MAX_CODE = 127;
+
+    private VectorQuantizer() {
+    }
+
+    /**
+     * 量化向量的字段名
+     */
+    public static String codeField(String vectorField) {
+        return vectorField + CODE_SUFFIX;
+    }
+
+    /**
+     * 缩放系数的字段名
+     */
+    public static String scaleField(String vectorField) {
+        return vectorField + SCALE_SUFFIX;
+    }
+
+    /**
+     * 计算单位化后向量的缩放系数
+     *
+     * @return 缩放系数，零向量返回0
+     */
+    public static float scale(float[] vector) {
+        double norm = 0.0;
+        float maxAbs = 0f;
+        for (float v : vector) {
+            norm += v * v;
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (norm == 0.0) {
+            return 0f;
+        }
+        return (float) (maxAbs / Math.sqrt(norm) / MAX_CODE);
+    }
+
+    /**
+     * 量化为int8编码（以int数组返回，便于序列化为ES的byte向量）
+     *
+     * @param vector 原始向量（不要求已归一化）
+     * @return 编码，每个分量在 [-127, 127]
+     */
+    public static int[] quantize(float[] vector) {
+        int[] codes = new int[vector.length];
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (maxAbs == 0f) {
+            return codes;
+        }
+        // 归一化后再除以scale，等价于直接按最大绝对值映射
+        float factor = MAX_CODE / maxAbs;
+        for (int i = 0; i < vector.length; i++) {
+            codes[i] = Math.round(vector[i] * factor);
+        }
+        return codes;
+    }
+
+    /**
+     * 把向量的量化编码和缩放系数写入ES文档
+     *
+     * @param document    ES文档
+     * @param vectorField 向量字段名
+     * @param vector      原始向量
+     */
+    public static void putQuantized(Map<String, Object> document, String vectorField, float[] vector) {
+        document.put(codeField(vectorField), quantize(vector));
+        document.put(scaleField(vectorField), scale(vector));
+    }
+}
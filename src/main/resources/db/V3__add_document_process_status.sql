@@ -0,0 +1,9 @@
+-- 添加文档异步处理状态字段（已有文档视为处理完成）
+ALTER TABLE `user_document`
+    ADD COLUMN `status` TINYINT(4) NOT NULL DEFAULT 2 COMMENT '处理状态：0-待处理，1-处理中，2-处理完成，3-处理失败' AFTER `description`,
+    ADD COLUMN `process_stage` VARCHAR(20) DEFAULT NULL COMMENT '当前（或失败时所在的）处理阶段：PARSE, GENERATE, INDEX' AFTER `status`,
+    ADD COLUMN `process_message` VARCHAR(500) DEFAULT NULL COMMENT '处理消息，记录处理过程或错误信息' AFTER `process_stage`,
+    ADD COLUMN `qa_count` INT(11) DEFAULT 0 COMMENT '生成的问答数量' AFTER `process_message`,
+    ADD COLUMN `retry_count` INT(11) NOT NULL DEFAULT 0 COMMENT '重试次数' AFTER `qa_count`,
+    ADD COLUMN `qa_result` MEDIUMTEXT DEFAULT NULL COMMENT '大模型生成的问答JSON' AFTER `retry_count`,
+    ADD KEY `idx_status` (`status`);
@@ -0,0 +1,86 @@
+package com.example.kefu.service;
+
+import com.example.kefu.model.response.SearchHits;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LocalVectorIndexServiceTest {
+
+    private static final int DIMS = 32;
+
+    private static final long USER_ID = 1L;
+
+    private static LocalVectorIndexService newService() {
+        LocalVectorIndexService service = new LocalVectorIndexService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "m", 16);
+        ReflectionTestUtils.setField(service, "efConstruction", 100);
+        ReflectionTestUtils.setField(service, "efSearch", 64);
+        ReflectionTestUtils.setField(service, "compactDeletedRatio", 0.2);
+        return service;
+    }
+
+    private static Map<String, Object> document(float[] vector, String question) {
+        Map<String, Object> document = new HashMap<>();
+        document.put("userId", USER_ID);
+        document.put("question", question);
+        document.put("question_vector", vector);
+        return document;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    @Test
+    void compactionKeepsIdsAndSourcesAligned() {
+        LocalVectorIndexService service = newService();
+        Random random = new Random(3);
+        int documents = 200;
+        float[][] latest = new float[documents][];
+
+        // 每个ID重复写入，删除标记远超阈值，期间会多次压缩
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < documents; i++) {
+                latest[i] = randomVector(random);
+                service.onDocumentIndexed("doc-" + i, document(latest[i], "q" + i + "-r" + round));
+            }
+        }
+        for (int i = 0; i < documents; i += 2) {
+            service.onDocumentDeleted(USER_ID, "doc-" + i);
+        }
+
+        assertEquals(documents / 2L, service.getStats().get("documents"));
+        for (int i = 1; i < documents; i += 2) {
+            SearchHits hits = service.search(USER_ID, null, null, latest[i], 1, Double.NEGATIVE_INFINITY, null, null);
+            SearchHits.Hit hit = hits.getHits().get(0);
+            assertEquals("doc-" + i, hit.getId());
+            assertEquals("q" + i + "-r3", hit.getSource().get("question"));
+            assertEquals(2.0, hit.getScore(), 1e-5);
+        }
+    }
+
+    @Test
+    void deletedDocumentsAreNotReturned() {
+        LocalVectorIndexService service = newService();
+        Random random = new Random(5);
+        float[] vector = randomVector(random);
+        service.onDocumentIndexed("a", document(vector, "a"));
+        service.onDocumentIndexed("b", document(randomVector(random), "b"));
+        service.onDocumentDeleted(USER_ID, "a");
+
+        SearchHits hits = service.search(USER_ID, null, null, vector, 5, Double.NEGATIVE_INFINITY, null, null);
+        assertEquals(1, hits.getHits().size());
+        assertEquals("b", hits.getHits().get(0).getId());
+    }
+}
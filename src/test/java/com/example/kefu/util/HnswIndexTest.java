@@ -0,0 +1,95 @@
+package com.example.kefu.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int DIMS = 64;
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    @Test
+    void recallAgainstExactSearch() {
+        Random random = new Random(7);
+        HnswIndex index = new HnswIndex(DIMS, 16, 100);
+        for (int i = 0; i < 3000; i++) {
+            index.add(randomVector(random));
+        }
+
+        int k = 10;
+        int queries = 100;
+        int found = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            Set<Integer> expected = new HashSet<>();
+            for (HnswIndex.Hit hit : index.exactSearch(query, k, null)) {
+                expected.add(hit.getNode());
+            }
+            for (HnswIndex.Hit hit : index.search(query, k, 64, null)) {
+                if (expected.contains(hit.getNode())) {
+                    found++;
+                }
+            }
+        }
+        double recall = (double) found / (queries * k);
+        assertTrue(recall >= 0.95, "recall@10: " + recall);
+    }
+
+    @Test
+    void scoresAreCosineSimilarity() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(DIMS, 16, 100);
+        float[] vector = randomVector(random);
+        index.add(vector);
+        index.add(randomVector(random));
+
+        List<HnswIndex.Hit> hits = index.search(vector, 1, 16, null);
+        assertEquals(0, hits.get(0).getNode());
+        assertEquals(1.0f, hits.get(0).getScore(), 1e-5f);
+    }
+
+    @Test
+    void deletedNodesAreNotReturned() {
+        Random random = new Random(13);
+        HnswIndex index = new HnswIndex(DIMS, 16, 100);
+        float[] vector = randomVector(random);
+        int node = index.add(vector);
+        for (int i = 0; i < 100; i++) {
+            index.add(randomVector(random));
+        }
+        index.delete(node);
+
+        assertEquals(101, index.size());
+        assertEquals(100, index.liveSize());
+        for (HnswIndex.Hit hit : index.search(vector, 10, 64, null)) {
+            assertFalse(hit.getNode() == node);
+        }
+        for (HnswIndex.Hit hit : index.exactSearch(vector, 10, null)) {
+            assertFalse(hit.getNode() == node);
+        }
+    }
+
+    @Test
+    void getVectorReturnsNormalizedVector() {
+        HnswIndex index = new HnswIndex(2, 16, 100);
+        int node = index.add(new float[]{3f, 4f});
+        float[] vector = index.getVector(node);
+        assertEquals(0.6f, vector[0], 1e-6f);
+        assertEquals(0.8f, vector[1], 1e-6f);
+    }
+}
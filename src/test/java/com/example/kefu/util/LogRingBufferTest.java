@@ -0,0 +1,125 @@
+package com.example.kefu.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LogRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new LogRingBuffer<String>(5).capacity());
+        assertEquals(8, new LogRingBuffer<String>(8).capacity());
+    }
+
+    @Test
+    void offerReturnsFalseWhenFull() {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, buffer.drainTo(drained, 1));
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+    }
+
+    @Test
+    void wrapsAroundInOrder() {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(4);
+        List<Integer> drained = new ArrayList<>();
+        int next = 0;
+        // 写入位置多次绕回起点
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(buffer.offer(next++));
+            }
+            // 每轮留下一个元素到下一轮，读取位置和写入位置错开
+            buffer.drainTo(drained, round % 2 == 0 ? 2 : 4);
+        }
+        buffer.drainTo(drained, Integer.MAX_VALUE);
+
+        assertEquals(next, drained.size());
+        for (int i = 0; i < next; i++) {
+            assertEquals(i, (int) drained.get(i));
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    void drainRespectsMaxItems() {
+        LogRingBuffer<String> buffer = new LogRingBuffer<>(8);
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+        List<String> drained = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertEquals(Arrays.asList("a", "b"), drained);
+        assertEquals(1, buffer.drainTo(drained, 10));
+        assertEquals(0, buffer.drainTo(drained, 10));
+    }
+
+    @Test
+    void multipleProducersSingleConsumer() throws Exception {
+        LogRingBuffer<Integer> buffer = new LogRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 20000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    // 缓冲区满时重试，保证每个元素最终都写入
+                    while (!buffer.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        List<Integer> drained = new ArrayList<>();
+        int total = producers * perProducer;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (drained.size() < total && System.currentTimeMillis() < deadline) {
+            if (buffer.drainTo(drained, 32) == 0) {
+                Thread.yield();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(total, drained.size());
+        Set<Integer> unique = new HashSet<>(drained);
+        assertEquals(total, unique.size());
+        // 同一生产者写入的元素保持顺序
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        for (int value : drained) {
+            int producer = value / perProducer;
+            assertTrue(value > last[producer], "out of order: " + value);
+            last[producer] = value;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.kefu.util;
+
+import com.example.kefu.model.response.SearchHits;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RankFusionTest {
+
+    /**
+     * 按参数顺序构造一路命中：id1, score1, id2, score2, ...
+     */
+    private static SearchHits leg(long total, Object... idAndScores) {
+        List<SearchHits.Hit> hits = new ArrayList<>();
+        for (int i = 0; i < idAndScores.length; i += 2) {
+            hits.add(new SearchHits.Hit((String) idAndScores[i], ((Number) idAndScores[i + 1]).doubleValue(),
+                    Collections.singletonMap("id", idAndScores[i])));
+        }
+        return new SearchHits(total, hits.isEmpty() ? null : hits.get(0).getScore(), hits);
+    }
+
+    private static List<String> ids(SearchHits hits) {
+        List<String> ids = new ArrayList<>();
+        for (SearchHits.Hit hit : hits.getHits()) {
+            ids.add(hit.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void rrfSumsReciprocalRanks() {
+        SearchHits text = leg(10, "a", 12.0, "b", 8.0);
+        SearchHits vector = leg(20, "b", 1.9, "c", 1.8);
+
+        SearchHits fused = RankFusion.rrf(Arrays.asList(text, vector), new double[]{1.0, 1.0}, 60, 10);
+
+        assertEquals(Arrays.asList("b", "a", "c"), ids(fused));
+        assertEquals(1.0 / 62 + 1.0 / 61, fused.getHits().get(0).getScore(), 1e-12);
+        assertEquals(1.0 / 61, fused.getHits().get(1).getScore(), 1e-12);
+        assertEquals(fused.getHits().get(0).getScore(), fused.getMaxScore(), 1e-12);
+        // total 取各路最大值
+        assertEquals(20L, fused.getTotal());
+    }
+
+    @Test
+    void rrfHonorsWeights() {
+        SearchHits text = leg(2, "a", 5.0, "b", 4.0);
+        SearchHits vector = leg(2, "b", 1.9, "a", 1.5);
+
+        assertEquals(Arrays.asList("a", "b"),
+                ids(RankFusion.rrf(Arrays.asList(text, vector), new double[]{2.0, 1.0}, 60, 10)));
+        assertEquals(Arrays.asList("b", "a"),
+                ids(RankFusion.rrf(Arrays.asList(text, vector), new double[]{1.0, 2.0}, 60, 10)));
+    }
+
+    @Test
+    void rrfTiesKeepFirstSeenOrder() {
+        SearchHits text = leg(2, "a", 5.0, "b", 4.0);
+        SearchHits vector = leg(2, "b", 1.9, "a", 1.5);
+
+        SearchHits fused = RankFusion.rrf(Arrays.asList(text, vector), new double[]{1.0, 1.0}, 60, 10);
+
+        assertEquals(Arrays.asList("a", "b"), ids(fused));
+        assertEquals(fused.getHits().get(0).getScore(), fused.getHits().get(1).getScore(), 1e-12);
+    }
+
+    @Test
+    void rrfTruncatesToSize() {
+        SearchHits text = leg(3, "a", 3.0, "b", 2.0, "c", 1.0);
+
+        SearchHits fused = RankFusion.rrf(Collections.singletonList(text), new double[]{1.0}, 60, 2);
+
+        assertEquals(Arrays.asList("a", "b"), ids(fused));
+        assertEquals(3L, fused.getTotal());
+    }
+
+    @Test
+    void weightedNormalizesEachLeg() {
+        // 两路分数区间差异很大，归一化后只看相对位置
+        SearchHits text = leg(3, "a", 30.0, "b", 20.0, "c", 10.0);
+        SearchHits vector = leg(3, "c", 1.9, "b", 1.7, "a", 1.5);
+
+        SearchHits fused = RankFusion.weighted(Arrays.asList(text, vector), new double[]{0.7, 0.3}, 10);
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(fused));
+        assertEquals(0.7, fused.getHits().get(0).getScore(), 1e-9);
+        assertEquals(0.5, fused.getHits().get(1).getScore(), 1e-9);
+        assertEquals(0.3, fused.getHits().get(2).getScore(), 1e-9);
+    }
+
+    @Test
+    void weightedTreatsEqualScoreLegAsFullScore() {
+        SearchHits text = leg(2, "a", 4.0, "b", 4.0);
+        SearchHits vector = leg(1, "b", 1.2);
+
+        SearchHits fused = RankFusion.weighted(Arrays.asList(text, vector), new double[]{0.5, 0.5}, 10);
+
+        assertEquals(Arrays.asList("b", "a"), ids(fused));
+        assertEquals(1.0, fused.getHits().get(0).getScore(), 1e-9);
+        assertEquals(0.5, fused.getHits().get(1).getScore(), 1e-9);
+    }
+
+    @Test
+    void emptyLegsProduceEmptyResult() {
+        SearchHits fused = RankFusion.rrf(Arrays.asList(leg(0), leg(0)), new double[]{1.0, 1.0}, 60, 10);
+
+        assertEquals(0, fused.getHits().size());
+        assertNull(fused.getMaxScore());
+    }
+
+    @Test
+    void keepsSourceOfFirstOccurrence() {
+        SearchHits text = leg(1, "a", 1.0);
+        SearchHits vector = new SearchHits(1, 1.0, new ArrayList<>(Collections.singletonList(
+                new SearchHits.Hit("a", 1.0, Collections.singletonMap("id", "other")))));
+
+        SearchHits fused = RankFusion.rrf(Arrays.asList(text, vector), new double[]{1.0, 1.0}, 60, 10);
+
+        assertEquals("a", fused.getHits().get(0).getString("id"));
+    }
+}
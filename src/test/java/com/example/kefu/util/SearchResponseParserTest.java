@@ -0,0 +1,167 @@
+package com.example.kefu.util;
+
+import com.example.kefu.model.response.SearchHits;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchResponseParserTest {
+
+    private static final String SEARCH_RESPONSE = "{"
+            + "\"took\": 3, \"timed_out\": false,"
+            + "\"_shards\": {\"total\": 1, \"successful\": 1, \"skipped\": 0, \"failed\": 0},"
+            + "\"hits\": {"
+            + "  \"total\": {\"value\": 42, \"relation\": \"eq\"},"
+            + "  \"max_score\": 1.9,"
+            + "  \"hits\": ["
+            + "    {\"_index\": \"qa_vectors\", \"_id\": \"a\", \"_score\": 1.9,"
+            + "     \"_source\": {\"question\": \"q1\", \"answer\": \"a1\", \"userId\": 7,"
+            + "                   \"question_vector\": [0.1, 0.2], \"tags\": [\"x\", \"y\"], \"meta\": {\"k\": true}}},"
+            + "    {\"_index\": \"qa_vectors\", \"_id\": \"b\", \"_score\": 1.5,"
+            + "     \"_source\": {\"question\": \"q2\", \"answer\": \"a2\", \"answer_vector\": [0.3]}},"
+            + "    {\"_index\": \"qa_vectors\", \"_id\": \"c\", \"_score\": 1.2,"
+            + "     \"_source\": {\"question\": \"q3\", \"answer\": \"a3\"}}"
+            + "  ]"
+            + "}}";
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesHitsAndSevenXTotal() throws IOException {
+        SearchHits hits = SearchResponseParser.parse(stream(SEARCH_RESPONSE), Double.NEGATIVE_INFINITY, null);
+
+        assertEquals(42L, hits.getTotal());
+        assertEquals(1.9, hits.getMaxScore(), 1e-9);
+        assertEquals(3, hits.getHits().size());
+        SearchHits.Hit first = hits.getHits().get(0);
+        assertEquals("a", first.getId());
+        assertEquals(1.9, first.getScore(), 1e-9);
+        assertEquals("q1", first.getString("question"));
+        assertEquals(7, ((Number) first.getSource().get("userId")).intValue());
+        assertEquals(Arrays.asList("x", "y"), first.getSource().get("tags"));
+        assertEquals(Collections.singletonMap("k", true), first.getSource().get("meta"));
+    }
+
+    @Test
+    void parsesSixXTotal() throws IOException {
+        String json = "{\"hits\": {\"total\": 5, \"max_score\": null, \"hits\": []}}";
+        SearchHits hits = SearchResponseParser.parse(stream(json), Double.NEGATIVE_INFINITY, null);
+
+        assertEquals(5L, hits.getTotal());
+        assertNull(hits.getMaxScore());
+        assertTrue(hits.getHits().isEmpty());
+    }
+
+    @Test
+    void skipsHitsAtOrBelowThreshold() throws IOException {
+        SearchHits hits = SearchResponseParser.parse(stream(SEARCH_RESPONSE), 1.5, null);
+
+        // total 和 max_score 不受阈值影响
+        assertEquals(42L, hits.getTotal());
+        assertEquals(1.9, hits.getMaxScore(), 1e-9);
+        assertEquals(1, hits.getHits().size());
+        assertEquals("a", hits.getHits().get(0).getId());
+    }
+
+    @Test
+    void skipsVectorFieldsByDefault() throws IOException {
+        SearchHits hits = SearchResponseParser.parse(stream(SEARCH_RESPONSE), Double.NEGATIVE_INFINITY, null);
+
+        assertFalse(hits.getHits().get(0).getSource().containsKey("question_vector"));
+        assertFalse(hits.getHits().get(1).getSource().containsKey("answer_vector"));
+        assertEquals("a2", hits.getHits().get(1).getString("answer"));
+    }
+
+    @Test
+    void skipsQuantizedVectorFieldsByDefault() throws IOException {
+        String json = "{\"hits\": {\"total\": 1, \"max_score\": 1.0, \"hits\": [{\"_id\": \"q\", \"_score\": 1.0,"
+                + "\"_source\": {\"question\": \"q\", \"question_vector_int8\": [12, -7],"
+                + "\"question_vector_scale\": 0.01, \"answer_vector_int8\": [3], \"answer_vector_scale\": 0.02}}]}}";
+        SearchHits hits = SearchResponseParser.parse(stream(json), Double.NEGATIVE_INFINITY, null);
+
+        assertEquals(Collections.singletonMap("question", "q"), hits.getHits().get(0).getSource());
+    }
+
+    @Test
+    void keepsOnlySelectedFields() throws IOException {
+        SearchHits hits = SearchResponseParser.parse(stream(SEARCH_RESPONSE), Double.NEGATIVE_INFINITY,
+                Arrays.asList("answer", "question_vector"));
+
+        SearchHits.Hit first = hits.getHits().get(0);
+        assertEquals(2, first.getSource().size());
+        assertEquals("a1", first.getString("answer"));
+        // 显式选取时向量字段也会返回
+        assertTrue(first.getSource().containsKey("question_vector"));
+    }
+
+    @Test
+    void keepsHitsWithoutScoreWhenNotFiltering() throws IOException {
+        String json = "{\"hits\": {\"total\": {\"value\": 1, \"relation\": \"eq\"}, \"max_score\": null,"
+                + "\"hits\": [{\"_id\": \"s\", \"_score\": null, \"_source\": {\"question\": \"q\"}, \"sort\": [1]}]}}";
+
+        SearchHits all = SearchResponseParser.parse(stream(json), Double.NEGATIVE_INFINITY, null);
+        assertEquals(1, all.getHits().size());
+        assertTrue(Double.isNaN(all.getHits().get(0).getScore()));
+
+        SearchHits filtered = SearchResponseParser.parse(stream(json), 0.5, null);
+        assertTrue(filtered.getHits().isEmpty());
+    }
+
+    @Test
+    void parsesMultiSearchResponses() throws IOException {
+        String json = "{\"took\": 5, \"responses\": ["
+                + SEARCH_RESPONSE
+                + ", {\"error\": {\"root_cause\": [], \"type\": \"index_not_found_exception\","
+                + "    \"reason\": \"no such index [missing]\"}, \"status\": 404}"
+                + ", {\"took\": 1, \"hits\": {\"total\": 3, \"max_score\": 0.9,"
+                + "    \"hits\": [{\"_id\": \"d\", \"_score\": 0.9, \"_source\": {\"question\": \"q4\"}}]},"
+                + "  \"status\": 200}"
+                + "]}";
+        String[] errors = new String[3];
+        List<SearchHits> results = SearchResponseParser.parseMulti(stream(json),
+                new double[]{1.5, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY},
+                Arrays.asList(Collections.singletonList("question"), null, null), errors);
+
+        assertEquals(3, results.size());
+        // 每一项使用自己的阈值和字段
+        SearchHits first = results.get(0);
+        assertEquals(42L, first.getTotal());
+        assertEquals(1, first.getHits().size());
+        assertEquals(Collections.singletonMap("question", "q1"), first.getHits().get(0).getSource());
+        assertNull(errors[0]);
+
+        assertNull(results.get(1));
+        assertEquals("index_not_found_exception: no such index [missing]", errors[1]);
+
+        assertEquals(3L, results.get(2).getTotal());
+        assertEquals("d", results.get(2).getHits().get(0).getId());
+        assertNull(errors[2]);
+    }
+
+    @Test
+    void rejectsMultiSearchCountMismatch() {
+        String json = "{\"responses\": [" + SEARCH_RESPONSE + "]}";
+        assertThrows(IOException.class, () -> SearchResponseParser.parseMulti(stream(json),
+                new double[]{0, 0}, Arrays.asList(null, null), new String[2]));
+    }
+
+    @Test
+    void rejectsNonObjectResponse() {
+        assertThrows(IOException.class,
+                () -> SearchResponseParser.parse(stream("[]"), Double.NEGATIVE_INFINITY, null));
+    }
+}